@@ -0,0 +1,103 @@
+/**
+ * This class plays the sound feedback of the robot in its own low priority thread. The mission
+ * code only queues a pattern and carries on, so the tones never keep the robot idle.
+ * A pattern is a list of {frequency, duration, pause} triples; a negative frequency plays a
+ * system sound instead of a tone.
+ */
+package FinalProject;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import lejos.hardware.Sound;
+
+public class AudioFeedback implements Runnable {
+  private static final int QUEUE_SIZE = 8; // patterns waiting to be played
+  private static final int FREQUENCY = 500; // frequency of the can tones (Hz)
+  private static final int PAUSE = 300; // pause after each can tone (ms)
+  // system sounds, played with Sound.systemSound()
+  private static final int BEEP = -1; // code 0
+  private static final int TWO_BEEPS = -2; // code 1
+  private static final int BEEP_SEQUENCE_UP = -4; // code 3
+
+  private static final BlockingQueue<int[]> queue = new ArrayBlockingQueue<int[]>(QUEUE_SIZE);
+
+  /**
+   * This method plays the patterns as they are queued
+   */
+  @Override
+  public void run() {
+    while (true) {
+      int[] pattern;
+      try {
+        pattern = queue.take();
+      } catch (InterruptedException e) {
+        continue;
+      }
+      for (int i = 0; i + 2 < pattern.length; i += 3) {
+        if (pattern[i] < 0) {
+          Sound.systemSound(false, -pattern[i] - 1);
+        } else {
+          Sound.playTone(pattern[i], pattern[i + 1]);
+        }
+        if (pattern[i + 2] > 0) {
+          Sound.pause(pattern[i + 2]);
+        }
+      }
+    }
+  }
+
+  /**
+   * This method starts the thread that plays the patterns, with the lowest priority so it
+   * never delays the navigation
+   * @return Not used
+   */
+  public static void start() {
+    Thread thread = new Thread(new AudioFeedback());
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * This method queues the feedback for a can: one tone per beep, the duration of the tones
+   * telling the weight
+   * @param beeps     the number of tones (from the color of the can)
+   * @param duration  the duration of each tone in ms
+   * @return Not used
+   */
+  public static void canPattern(int beeps, int duration) {
+    int[] pattern = new int[3 * beeps];
+    for (int i = 0; i < beeps; i++) {
+      pattern[3 * i] = FREQUENCY;
+      pattern[3 * i + 1] = duration;
+      pattern[3 * i + 2] = PAUSE;
+    }
+    enqueue(pattern);
+  }
+
+  /**
+   * This method queues the feedback for a delivered can (two double beeps and a beep)
+   * @return Not used
+   */
+  public static void delivered() {
+    enqueue(new int[] {TWO_BEEPS, 0, 0, TWO_BEEPS, 0, 0, BEEP, 0, 0});
+  }
+
+  /**
+   * This method queues the feedback for the end of the localization
+   * @return Not used
+   */
+  public static void localized() {
+    enqueue(new int[] {BEEP_SEQUENCE_UP, 0, 0});
+  }
+
+  /**
+   * This method queues a pattern. If the queue is full the pattern is dropped, since
+   * the mission must never wait for a sound.
+   * @param pattern  the pattern
+   * @return Not used
+   */
+  private static void enqueue(int[] pattern) {
+    queue.offer(pattern);
+  }
+}
@@ -0,0 +1,193 @@
+/**
+ * This class brings the claw to a detected can while ranging it with the ultrasonic sensor.
+ * The robot drives blind only to a point in front of the can, then sweeps a few degrees to
+ * find the bearing of the minimum range and drives along it, slowing down as the range gets
+ * shorter and stopping at the distance where the claw can hold the can. If the can slips out
+ * of the beam on the way, the bearing is searched again. The color detection of the can is
+ * started in the last centimeter, and cancelled if the can is lost.
+ */
+package FinalProject;
+
+import Odometer.Odometer;
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+import lejos.robotics.SampleProvider;
+import static FinalProject.Main.*;
+
+public class CanApproach {
+  private static Odometer odometer;
+  private static EV3LargeRegulatedMotor leftMotor;
+  private static EV3LargeRegulatedMotor rightMotor;
+  private static SampleProvider usSensor;
+  private static float[] usData;
+
+  private static final double STANDOFF = 20; // distance to the can where the ranging starts (cm)
+  private static final double GRAB_DISTANCE = 7; // reading when the can is in the claw (cm)
+  // the color detection starts at this range, so most of the sampling is done during the last
+  // part of the approach, at the lowest speed (cm)
+  private static final double IDENTIFY_RANGE = GRAB_DISTANCE + 3;
+  private static final double SWEEP = 20; // the bearing is searched on each side by this (deg)
+  private static final int SWEEP_SPEED = 40; // wheel speed during the bearing search (deg/s)
+  private static final double LOST = 8; // the can is lost when the range grows by this (cm)
+  private static final double MARGIN = 15; // extra distance allowed before giving up (cm)
+  private static final int MIN_SPEED = 60; // speed when arriving at the can (deg/s)
+  private static final double K_RANGE = 10; // speed per cm of range left (deg/s)
+  private static final double K_HEADING = 6; // steering per degree of heading error (deg/s)
+  private static final int SEARCHES = 3; // number of bearing searches before giving up
+  private static final long APPROACH_PERIOD = 30; // about the sampling time of the sensor (ms)
+  private static final long CLOSE_TIMEOUT = 10000; // the close-in gives up after this (ms)
+
+  /**
+   * This is the constructor for the class
+   * @param odometer    the odometer
+   * @param leftMotor   the left motor of the robot
+   * @param rightMotor  the right motor of the robot
+   * @param usSensor    the ultrasonic sensor in the "Distance" mode
+   * @return Not used
+   */
+  public CanApproach(Odometer odometer, EV3LargeRegulatedMotor leftMotor,
+      EV3LargeRegulatedMotor rightMotor, SampleProvider usSensor) {
+    CanApproach.odometer = odometer;
+    CanApproach.leftMotor = leftMotor;
+    CanApproach.rightMotor = rightMotor;
+    CanApproach.usSensor = usSensor;
+    CanApproach.usData = new float[usSensor.sampleSize()];
+  }
+
+  /**
+   * This method brings the claw to the can at the given position. If the can cannot be
+   * found with the sensor, the robot drives to the position blind.
+   * @param canX  the estimated x coordinate of the can (cm)
+   * @param canY  the estimated y coordinate of the can (cm)
+   * @return true if the robot stopped at the grab distance of the can
+   */
+  public static boolean approach(double canX, double canY) {
+    double[] odoData = odometer.getXYT();
+    double dx = canX - odoData[0];
+    double dy = canY - odoData[1];
+    double distance = Math.hypot(dx, dy);
+    if (distance > STANDOFF) {
+      double ratio = (distance - STANDOFF) / distance;
+      Navigation.travelTo((odoData[0] + dx * ratio) / TILE_SIZE,
+          (odoData[1] + dy * ratio) / TILE_SIZE, true);
+      distance = STANDOFF;
+    }
+    double bearing = Math.toDegrees(Math.atan2(dx, dy));
+    for (int search = 0; search < SEARCHES; search++) {
+      double[] found = findBearing(bearing, distance + MARGIN);
+      if (found == null) {
+        break;
+      }
+      bearing = found[0];
+      if (closeIn(bearing, found[1])) {
+        return true;
+      }
+      distance = Math.min(distance, found[1]);
+    }
+    CanColorDetection.cancelDetection();
+    Navigation.travelTo(canX / TILE_SIZE, canY / TILE_SIZE, true);
+    return false;
+  }
+
+  /**
+   * This method sweeps clockwise across the expected bearing of the can and returns the
+   * bearing at which the range was the shortest
+   * @param bearing   the expected bearing (deg)
+   * @param maxRange  readings further than this are not the can (cm)
+   * @return {bearing, range} of the minimum range, null if the can was not seen
+   */
+  private static double[] findBearing(double bearing, double maxRange) {
+    leftMotor.setSpeed(PowerGovernor.speed(ROTATE_SPEED));
+    rightMotor.setSpeed(PowerGovernor.speed(ROTATE_SPEED));
+    Navigation.turnTo((bearing - SWEEP + 360) % 360);
+    double start = GyroService.getAngle();
+    double[] best = null;
+    leftMotor.setSpeed(SWEEP_SPEED);
+    rightMotor.setSpeed(SWEEP_SPEED);
+    MotionMonitor.clearStall();
+    leftMotor.forward();
+    rightMotor.backward();
+    while (!MotionMonitor.isStalled()) {
+      double heading = GyroService.getAngle();
+      if ((heading - start + 360) % 360 > 2 * SWEEP && (heading - start + 360) % 360 < 180) {
+        break;
+      }
+      double range = fetchRange();
+      if (range <= maxRange && (best == null || range < best[1])) {
+        best = new double[] {heading, range};
+      }
+    }
+    leftMotor.stop(true);
+    rightMotor.stop();
+    if (best != null) {
+      leftMotor.setSpeed(PowerGovernor.speed(ROTATE_SPEED));
+      rightMotor.setSpeed(PowerGovernor.speed(ROTATE_SPEED));
+      Navigation.turnTo(best[0]);
+    }
+    return best;
+  }
+
+  /**
+   * This method drives towards the can along the bearing, with a speed proportional to the
+   * range left, until the range is the grab distance
+   * @param bearing  the bearing of the can (deg)
+   * @param range    the range measured along the bearing (cm)
+   * @return true if the robot stopped at the grab distance, false if the can was lost, or not
+   *         reached within the range measured plus a margin or within the timeout
+   */
+  private static boolean closeIn(double bearing, double range) {
+    double minRange = range;
+    double maxTravel = range + MARGIN;
+    double[] start = odometer.getXYT();
+    long startTime = System.currentTimeMillis();
+    boolean arrived = false;
+    MotionMonitor.clearStall();
+    while (true) {
+      range = fetchRange();
+      if (range <= GRAB_DISTANCE) {
+        arrived = true;
+        break;
+      }
+      double[] odoData = odometer.getXYT();
+      boolean tooFar = Math.hypot(odoData[0] - start[0], odoData[1] - start[1]) > maxTravel
+          || System.currentTimeMillis() - startTime > CLOSE_TIMEOUT;
+      if (range > minRange + LOST || MotionMonitor.isStalled() || tooFar) {
+        // a detection started on this can would have seen something else
+        CanColorDetection.cancelDetection();
+        break;
+      }
+      minRange = Math.min(minRange, range);
+      if (range <= IDENTIFY_RANGE) {
+        CanColorDetection.startDetection();
+      }
+      double speed = Math.max(MIN_SPEED, Math.min(FORWARD_SPEED, K_RANGE * (range - GRAB_DISTANCE)));
+      double headingError = GyroService.getAngle() - bearing;
+      if (headingError > 180) {
+        headingError -= 360;
+      } else if (headingError < -180) {
+        headingError += 360;
+      }
+      double steering = Math.max(-speed / 3, Math.min(speed / 3, K_HEADING * headingError));
+      leftMotor.setSpeed(PowerGovernor.speed(speed - steering));
+      rightMotor.setSpeed(PowerGovernor.speed(speed + steering));
+      leftMotor.forward();
+      rightMotor.forward();
+      try {
+        Thread.sleep(APPROACH_PERIOD);
+      } catch (InterruptedException e) {
+        // there is nothing to be done
+      }
+    }
+    leftMotor.stop(true);
+    rightMotor.stop();
+    return arrived;
+  }
+
+  /**
+   * This method returns the reading of the ultrasonic sensor
+   * @return the distance in cm
+   */
+  private static double fetchRange() {
+    usSensor.fetchSample(usData, 0);
+    return usData[0] * 100;
+  }
+}
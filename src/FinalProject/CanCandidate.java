@@ -0,0 +1,62 @@
+/**
+ * This class holds a can detected by the CanScanner: its position on the map, the
+ * scanning pose it was seen from and how sure we are that it is there
+ */
+package FinalProject;
+
+public class CanCandidate {
+  static final double DETECTION_CONFIDENCE = 0.6; // confidence given by a single detection
+  public double x, y; // position of the can (in cm)
+  public double scanX, scanY; // scanning position the can was seen from (in tiles)
+  public double confidence = DETECTION_CONFIDENCE; // between 0 and 1
+  public int observations = 1; // number of scans that saw the can
+
+  /**
+   * This is the constructor for the class
+   * @param x      x of the can (in cm)
+   * @param y      y of the can (in cm)
+   * @param scanX  x of the scanning position (in tiles)
+   * @param scanY  y of the scanning position (in tiles)
+   * @return Not used
+   */
+  public CanCandidate(double x, double y, double scanX, double scanY) {
+    this.x = x;
+    this.y = y;
+    this.scanX = scanX;
+    this.scanY = scanY;
+  }
+
+  /**
+   * This is the constructor for the class, for a detection with its own confidence
+   * @param x           x of the can (in cm)
+   * @param y           y of the can (in cm)
+   * @param scanX       x of the scanning position (in tiles)
+   * @param scanY       y of the scanning position (in tiles)
+   * @param confidence  the confidence of the detection, between 0 and 1
+   * @return Not used
+   */
+  public CanCandidate(double x, double y, double scanX, double scanY, double confidence) {
+    this(x, y, scanX, scanY);
+    this.confidence = confidence;
+  }
+
+  /**
+   * This method returns a copy of the can
+   * @return the copy
+   */
+  public CanCandidate copy() {
+    CanCandidate copy = new CanCandidate(x, y, scanX, scanY, confidence);
+    copy.observations = observations;
+    return copy;
+  }
+
+  /**
+   * This method returns the distance to a point
+   * @param x  x of the point (in cm)
+   * @param y  y of the point (in cm)
+   * @return the distance in cm
+   */
+  public double distanceTo(double x, double y) {
+    return Math.hypot(this.x - x, this.y - y);
+  }
+}
@@ -1,23 +1,72 @@
 /**
  * This class is used to detect the color of a can using a light sensor mounted on a rotating
- * motor
+ * motor. The detection can run in its own thread, so it starts while the robot is still
+ * closing in on the can.
+ * The RGB readings are compensated for the ambient light: a dark reference (nothing in front
+ * of the sensor) and the ambient level are taken at startup, and the offset the ambient light
+ * adds to the readings is removed, scaled by the ambient level measured before each detection.
+ * Each channel is then divided by its span from the dark to a white reference. The white
+ * reference and the means of the colors are measured in the calibration run and kept in a
+ * file that is loaded at startup; without it, only the change of the ambient offset is removed,
+ * since the default means were measured on raw readings.
+ * When the RGB reading is not clear enough, the ColorID mode of the sensor is used as a second
+ * vote, in one block on the way back of the sweep, so the sensor only changes its mode once.
  */
 package FinalProject;
 
-
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import lejos.hardware.Button;
 import lejos.hardware.motor.EV3LargeRegulatedMotor;
+import lejos.hardware.sensor.SensorModes;
 import lejos.robotics.SampleProvider;
 
 public class CanColorDetection {
+  private static final String FILE = "color.properties";
   private static SampleProvider colorSensor;
   private static float[] colorData;
+  private static SampleProvider ambientSensor;
+  private static SampleProvider colorIdSensor;
+  private static float[] modeData;
   private static EV3LargeRegulatedMotor colorSensorMotor;
 
   public static int colorCode; // 0: Red; 1: Yellow; 2: Green; 3: Blue
+  private static Future<Integer> detection; // detection of the can being picked up, if started
+  private static final ExecutorService executor =
+      Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
   
  //Parameters related to the readings obtained from testing (data acquisition)
   private static double[][] means =
     {{0.22, 0.73, 0.64}, {0.83, 0.54, 0.16}, {0.31, 0.93, 0.19}, {0.97, 0.18, 0.11}};
+  private static final String[] names = {"Blue", "Yellow", "Green", "Red"}; // of each mean
+  private static final int REFERENCE_SAMPLES = 10; // samples averaged for a reference
+  // index in means of each ColorID of the sensor (RED, GREEN, BLUE, YELLOW, MAGENTA, ORANGE)
+  private static final int[] colorIds = {3, 2, 0, 1, -1, 3};
+  private static final double THRESHOLD = 0.1; // distance to a mean to detect a color
+  private static final double AGREEMENT = 0.05; // extra distance allowed when ColorID agrees
+  private static final int MAX_STEPS = 14; // steps of 5 degrees of the sensor motor, 70 degrees
+  private static final long IDENTIFY_TIMEOUT = 5000; // the detection gives up after this (ms)
+
+  // per run references, taken at startup
+  private static double[] darkReference = new double[3]; // RGB with nothing in front
+  private static double ambientReference = 0; // ambient level when the dark reference was taken
+  private static double ambientLevel = 0; // ambient level before the current detection
+  private static double[] whiteSpan = null; // white minus dark of each channel, null if not calibrated
 
   /**
    * This is the constructor for the class
@@ -26,11 +75,107 @@ public class CanColorDetection {
    * @param colorSensorMotor
    * @return Not used
    */
-  public CanColorDetection(SampleProvider colorSensor, float[] colorData,
+  public CanColorDetection(SensorModes colorSensor, float[] colorData,
       EV3LargeRegulatedMotor colorSensorMotor) {
     CanColorDetection.colorSensorMotor = colorSensorMotor;
-    CanColorDetection.colorSensor = colorSensor;
+    CanColorDetection.colorSensor = colorSensor.getMode("RGB");
     CanColorDetection.colorData = colorData;
+    CanColorDetection.ambientSensor = colorSensor.getMode("Ambient");
+    CanColorDetection.colorIdSensor = colorSensor.getMode("ColorID");
+    CanColorDetection.modeData = new float[1];
+  }
+
+  /**
+   * This method takes the references of the run. It is called at startup, with nothing
+   * in front of the color sensor.
+   * @return Not used
+   */
+  public static void calibrate() {
+    ambientReference = fetchAmbient();
+    darkReference = fetchAverage(false);
+    ambientLevel = ambientReference;
+  }
+
+  /**
+   * This method runs the calibration of the color sensor: the dark reference, the white
+   * reference and the mean of each color, with a white surface and each can placed in front of
+   * the sensor when asked. The result is saved.
+   * @return Not used
+   */
+  public static void runCalibration() {
+    System.out.println("Nothing at sensor, then press");
+    Button.waitForAnyPress();
+    calibrate();
+    System.out.println("White at sensor, then press");
+    Button.waitForAnyPress();
+    double[] white = fetchAverage(false);
+    double[] span = new double[3];
+    for (int j = 0; j < 3; j++) {
+      span[j] = white[j] - darkReference[j];
+      if (span[j] <= 0) {
+        System.err.println("Error: the white reference is not brighter than the dark one");
+        return;
+      }
+    }
+    whiteSpan = span;
+    for (int i = 0; i < means.length; i++) {
+      System.out.println(names[i] + " can at sensor, then press");
+      Button.waitForAnyPress();
+      means[i] = fetchAverage(true);
+    }
+    save();
+  }
+
+  /**
+   * This method loads the white reference and the means of the colors, if they were saved
+   * @return Not used
+   */
+  public static void load() {
+    Properties properties = new Properties();
+    FileInputStream in = null;
+    try {
+      in = new FileInputStream(FILE);
+      properties.load(in);
+      double[] span = new double[3];
+      double[][] loaded = new double[means.length][3];
+      for (int j = 0; j < 3; j++) {
+        span[j] = Double.parseDouble(properties.getProperty("white" + j));
+        for (int i = 0; i < means.length; i++) {
+          loaded[i][j] = Double.parseDouble(properties.getProperty(names[i] + j));
+        }
+      }
+      whiteSpan = span;
+      means = loaded;
+    } catch (IOException e) {
+      // not calibrated yet, the default values are kept
+    } catch (RuntimeException e) {
+      System.err.println("Error: " + e.getMessage());
+    } finally {
+      KinematicsCalibration.close(in);
+    }
+  }
+
+  /**
+   * This method saves the white reference and the means of the colors
+   * @return Not used
+   */
+  public static void save() {
+    Properties properties = new Properties();
+    for (int j = 0; j < 3; j++) {
+      properties.setProperty("white" + j, Double.toString(whiteSpan[j]));
+      for (int i = 0; i < means.length; i++) {
+        properties.setProperty(names[i] + j, Double.toString(means[i][j]));
+      }
+    }
+    FileOutputStream out = null;
+    try {
+      out = new FileOutputStream(FILE);
+      properties.store(out, "Calibrated color references");
+    } catch (IOException e) {
+      System.err.println("Error: " + e.getMessage());
+    } finally {
+      KinematicsCalibration.close(out);
+    }
   }
 
   /**
@@ -41,39 +186,125 @@ public class CanColorDetection {
    * @return Not used
    */
   public static void detectCanColor() {
+    GyroService.setStationary(true);// The robot does not move during the scan
+    identify();
+    GyroService.setStationary(false);
+  }
+
+  /**
+   * This method starts the detection of the color in its own thread, while the robot keeps
+   * moving. It does nothing if the detection of this can is already started.
+   * @return the future of the detection, giving the color code
+   */
+  public static synchronized Future<Integer> startDetection() {
+    if (detection == null) {
+      detection = executor.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() {
+          return identify() ? colorCode : -1;
+        }
+      });
+    }
+    return detection;
+  }
+
+  /**
+   * This method cancels the detection started with startDetection(), if any, so that its
+   * result is not given for another can. The sensor motor is turned back by the detection.
+   * @return Not used
+   */
+  public static synchronized void cancelDetection() {
+    if (detection != null) {
+      detection.cancel(true);
+      detection = null;
+    }
+  }
+
+  /**
+   * This method waits for the detection started with startDetection() to be over, starting
+   * it if needed, and makes the next call start a new detection
+   * @return the color code, -1 if no color was identified
+   */
+  public static int awaitColor() {
+    Future<Integer> future;
+    synchronized (CanColorDetection.class) {
+      future = startDetection();
+      detection = null;
+    }
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      // there is nothing to be done
+    } catch (ExecutionException e) {
+      System.err.println("Error: " + e.getMessage());
+    }
+    return -1;
+  }
+
+  /**
+   * This method does the detection of the color and sets the color code. The sensor sweeps
+   * MAX_STEPS steps at most, within IDENTIFY_TIMEOUT.
+   * @return true if a color was identified, false if the sweep ended, timed out or the detection
+   *         was cancelled
+   */
+  private static boolean identify() {
+    long start = System.currentTimeMillis();
+    ambientLevel = fetchAmbient();
     colorSensorMotor.setSpeed(50);// Set the speed of the sensor Motor
     int colorNum = -1;// We have not yet identified the color
-    int n = -1;// We have not started moving the motor
-    while (colorNum == -1) {// While no color has been identified
+    int position = 0;// Steps of the sensor motor away from its initial position
+    int[] nearMiss = new int[MAX_STEPS];// Color close to a mean at each step, -1 if none
+    int firstMiss = MAX_STEPS;// First step with a near miss
+    double[] reading = new double[3];
+    // While no color has been identified, and the detection was not cancelled or timed out
+    while (colorNum == -1 && !Thread.currentThread().isInterrupted() && position < MAX_STEPS
+        && System.currentTimeMillis() - start < IDENTIFY_TIMEOUT) {
       // Rotate the motor to a new position
-      n++;
       colorSensorMotor.rotate(-5, true);
+      nearMiss[position] = -1;
+      position++;
       // Fetch the color at that location
-      colorSensor.fetchSample(colorData, 0);
-      double R = colorData[0];
-      double G = colorData[1];
-      double B = colorData[2];
-      // Normalize the RGB values
-      double norm = Math.sqrt(R * R + G * G + B * B);
-      R /= norm;
-      G /= norm;
-      B /= norm;
+      if (!fetchReading(reading)) {
+        continue; // nothing in front of the sensor
+      }
       // Compare (by Euclidean distance) the color to the known colors
+      int closest = -1;
+      double closestDistance = Double.MAX_VALUE;
       for (int i = 0; i < 4; i++) {
         double rMean = means[i][0];
         double gMean = means[i][1];
         double bMean = means[i][2];
-        double d =
-            Math.sqrt(Math.pow(R - rMean, 2) + Math.pow(G - gMean, 2) + Math.pow(B - bMean, 2));
-        if (d <= 0.1) {// If the Euclidean distance is sufficiently low, we identify the color
-          colorNum = i;
-          System.out.println(R + "," + G + "," + B);
+        double d = Math.sqrt(Math.pow(reading[0] - rMean, 2) + Math.pow(reading[1] - gMean, 2)
+            + Math.pow(reading[2] - bMean, 2));
+        if (d < closestDistance) {
+          closest = i;
+          closestDistance = d;
         }
       }
+      if (closestDistance <= THRESHOLD) {// If the Euclidean distance is sufficiently low, we identify the color
+        colorNum = closest;
+      } else if (closestDistance <= THRESHOLD + AGREEMENT) {
+        // close to a mean, the ColorID mode is asked on the way back
+        nearMiss[position - 1] = closest;
+        firstMiss = Math.min(firstMiss, position - 1);
+      }
+    }
+    // On the way back, the ColorID mode votes at the steps that were close to a mean
+    while (colorNum == -1 && position > firstMiss && !Thread.currentThread().isInterrupted()
+        && System.currentTimeMillis() - start < IDENTIFY_TIMEOUT) {
+      if (nearMiss[position - 1] >= 0 && colorIdVote() == nearMiss[position - 1]) {
+        colorNum = nearMiss[position - 1];
+      } else {
+        colorSensorMotor.rotate(5);
+        position--;
+      }
     }
     // Rotate the motor back to its initial position
-    colorSensorMotor.rotate(n * 5, true);
-    colorSensorMotor.stop();
+    colorSensorMotor.rotate(position * 5);
+    if (colorNum == -1) {
+      return false; // the color code of the last can is kept
+    }
+    TimeCostModel.record(TimeCostModel.COLOR_ID, 1, System.currentTimeMillis() - start);
     // Display the color name based on the color number identified
     if (colorNum == 1) {
       colorCode = 1;
@@ -84,6 +315,83 @@ public class CanColorDetection {
     } else {
       colorCode = 0;
     }
+    return true;
+  }
+
+  /**
+   * This method fetches an RGB reading, removes the ambient offset, divides each channel by
+   * its span to the white reference if there is one, and normalizes the result
+   * @param reading  the array the normalized reading is written to
+   * @return true if there was a reading, false if nothing is in front of the sensor
+   */
+  private static boolean fetchReading(double[] reading) {
+    colorSensor.fetchSample(colorData, 0);
+    double scale = ambientReference > 0 ? ambientLevel / ambientReference : 1;
+    double norm = 0;
+    for (int j = 0; j < 3; j++) {
+      if (whiteSpan == null) {
+        // the default means were measured on raw readings: only the change of the offset since
+        // the reference of the run is removed
+        reading[j] = Math.max(0, colorData[j] - (scale - 1) * darkReference[j]);
+      } else {
+        reading[j] = Math.max(0, (colorData[j] - scale * darkReference[j]) / whiteSpan[j]);
+      }
+      norm += reading[j] * reading[j];
+    }
+    norm = Math.sqrt(norm);
+    if (norm == 0) {
+      return false;
+    }
+    for (int j = 0; j < 3; j++) {
+      reading[j] /= norm;
+    }
+    return true;
+  }
+
+  /**
+   * This method averages REFERENCE_SAMPLES readings of the sensor
+   * @param normalized  true for normalized readings (a mean), false for raw ones (a reference)
+   * @return the average of each channel
+   */
+  private static double[] fetchAverage(boolean normalized) {
+    double[] sum = new double[3];
+    double[] reading = new double[3];
+    for (int i = 0; i < REFERENCE_SAMPLES; i++) {
+      if (normalized) {
+        fetchReading(reading);
+      } else {
+        colorSensor.fetchSample(colorData, 0);
+        for (int j = 0; j < 3; j++) {
+          reading[j] = colorData[j];
+        }
+      }
+      for (int j = 0; j < 3; j++) {
+        sum[j] += reading[j];
+      }
+    }
+    for (int j = 0; j < 3; j++) {
+      sum[j] /= REFERENCE_SAMPLES;
+    }
+    return sum;
+  }
+
+  /**
+   * This method reads the ColorID mode of the sensor
+   * @return the index in means of the color seen, -1 if it is none of them
+   */
+  private static int colorIdVote() {
+    colorIdSensor.fetchSample(modeData, 0);
+    int id = (int) modeData[0];
+    return id >= 0 && id < colorIds.length ? colorIds[id] : -1;
+  }
+
+  /**
+   * This method reads the ambient light level
+   * @return the ambient level
+   */
+  private static double fetchAmbient() {
+    ambientSensor.fetchSample(modeData, 0);
+    return modeData[0];
   }
 }
 
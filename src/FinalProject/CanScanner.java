@@ -1,12 +1,23 @@
 /**
  * This class is used to scan through 90 (clockwise) from a waypoint and detect
- * if there is a can within a one tile distance
+ * if there is a can within a one tile distance. Each reading is projected on the field and
+ * checked against the known geometry (perimeter walls, tunnel, limits of the search zone), so
+ * that a wall or the tunnel is not taken for a can. The cans kept get a confidence that is
+ * lower the closer they are to that geometry.
  */
 package FinalProject;
 
 import static FinalProject.Main.ROTATE_SPEED;
+import static FinalProject.Main.SZ_LLx;
+import static FinalProject.Main.SZ_LLy;
+import static FinalProject.Main.SZ_URx;
+import static FinalProject.Main.SZ_URy;
+import static FinalProject.Main.TILE_SIZE;
+import static FinalProject.Main.US_SENSOR_OFFSET;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import Odometer.Odometer;
-import lejos.hardware.Sound;
 import lejos.hardware.motor.EV3LargeRegulatedMotor;
 import lejos.robotics.SampleProvider;
 
@@ -16,11 +27,16 @@ public class CanScanner implements Runnable {
   private Odometer odometer;
   private SampleProvider usSensor;
   private float[] usData;
-  private static final double TIGGER_DISTANCE = 30.48;
-  public static boolean isScanning = false;
-  public static double initialHeading;
-  public static double degreesOfTurning;
-  public static double detectedCanDistance;
+  static final double TIGGER_DISTANCE = 30.48; // detection range in cm, used by the SearchPlanner
+  private static final double SWEEP_ANGLE = 90;
+  private static final double WALL_GATE = 5; // a reading this close to the expected wall range is the wall (cm)
+  private static final double CAN_RADIUS = 3; // the reading is the front of the can, not its center (cm)
+  private static final double ZONE_MARGIN = 5; // cans may stick out of the search zone by this (cm)
+  private static final double CLEARANCE = 10; // closer than this to the geometry lowers the confidence (cm)
+  public static volatile boolean isScanning = false;
+  public static volatile double initialHeading;
+  public static final List<CanCandidate> detections =
+      Collections.synchronizedList(new ArrayList<CanCandidate>());
 
 
   // constructor
@@ -44,32 +60,127 @@ public class CanScanner implements Runnable {
   
   /**
    * This method is where the logic for the can scanner will run. It performs a search
-   * for a can once the boolean variable isScanning is set to true (done in the
+   * for a can each time the boolean variable isScanning is set to true (done in the
    * MapDriver class).
    */
-  // turning right 90 degrees and stop rotating until finds a can
   @Override
   public void run() {
-    usSensor.fetchSample(usData, 0);
-    leftMotor.setSpeed(ROTATE_SPEED);
-    rightMotor.setSpeed(ROTATE_SPEED);
-    while (isScanning == true) {
+    while (true) {
+      if (isScanning) {
+        scan();
+      }
+      // wait for the end of the scan before being ready for the next one
+      while (isScanning) {
+        sleep();
+      }
+      sleep();
+    }
+  }
+
+  /**
+   * This method turns right by up to 90 degrees from the initial heading and records the
+   * closest point of each group of readings within range as a can.
+   * @return Not used
+   */
+  private void scan() {
+    leftMotor.setSpeed(PowerGovernor.speed(ROTATE_SPEED));
+    rightMotor.setSpeed(PowerGovernor.speed(ROTATE_SPEED));
+    leftMotor.forward();
+    rightMotor.backward();
+    double[] closest = null; // pose {x, y, theta, distance} of the closest reading of a can
+    while (isScanning) {
       double[] odoData = odometer.getXYT();
-      double angle = odoData[2];
-      while (Math.abs(angle - initialHeading) <= 90) {
-        leftMotor.forward();
-        rightMotor.backward();
-        if (usData[0] <= TIGGER_DISTANCE) {
-          leftMotor.stop();
-          rightMotor.stop();
-          detectedCanDistance = usData[0];
-          // the angle the robot turns on each side of the search zone
-          degreesOfTurning = angle-initialHeading;
-          isScanning = false;
+      // the angle the robot turned from the initial heading
+      double angle = (odoData[2] - initialHeading + 360) % 360;
+      if (angle > SWEEP_ANGLE && angle < 360 - SWEEP_ANGLE) {
+        break; // the sweep is over
+      }
+      usSensor.fetchSample(usData, 0);
+      double distance = usData[0] * 100;
+      OpponentTracker.observe(System.currentTimeMillis(), odoData, distance);
+      if (distance <= TIGGER_DISTANCE && confidence(odoData, distance) <= 0) {
+        distance = Double.POSITIVE_INFINITY; // the reading is a wall or the tunnel
+      }
+      if (distance <= TIGGER_DISTANCE) {
+        if (closest == null || distance < closest[3]) {
+          closest = new double[] {odoData[0], odoData[1], odoData[2], distance};
         }
+      } else if (closest != null) {
+        record(closest);
+        closest = null;
       }
     }
+    leftMotor.stop(true);
+    rightMotor.stop();
+    if (closest != null) {
+      record(closest);
+    }
+  }
+
+  /**
+   * This method records a can from the pose of the closest reading of it
+   * @param closest  the pose {x, y, theta, distance}
+   * @return Not used
+   */
+  private static void record(double[] closest) {
+    double[] can = project(closest, closest[3]);
+    detections.add(new CanCandidate(can[0], can[1], closest[0] / TILE_SIZE,
+        closest[1] / TILE_SIZE, confidence(closest, closest[3])));
+  }
+
+  /**
+   * This method projects a reading on the field: the center of the can is a can radius
+   * behind the point seen, and the sensor is in front of the wheel axis
+   * @param pose      the pose of the robot {x, y, theta} when the reading was taken
+   * @param distance  the reading (cm)
+   * @return the position {x, y} of the can (cm)
+   */
+  private static double[] project(double[] pose, double distance) {
+    double heading = Math.toRadians(pose[2]);
+    double range = US_SENSOR_OFFSET + distance + CAN_RADIUS;
+    return new double[] {pose[0] + range * Math.sin(heading), pose[1] + range * Math.cos(heading)};
+  }
+
+  /**
+   * This method checks a reading against the known geometry of the field. The reading is
+   * rejected if it matches the range of the wall it points to, or if the can would be in the
+   * tunnel or out of the search zone. Otherwise the confidence of a detection is lowered
+   * when the can is close to a wall or to the tunnel.
+   * @param pose      the pose of the robot {x, y, theta} when the reading was taken
+   * @param distance  the reading (cm)
+   * @return the confidence of the can, 0 if the reading is rejected
+   */
+  static double confidence(double[] pose, double distance) {
+    double heading = Math.toRadians(pose[2]);
+    double sensorX = pose[0] + US_SENSOR_OFFSET * Math.sin(heading);
+    double sensorY = pose[1] + US_SENSOR_OFFSET * Math.cos(heading);
+    double wall = FieldMap.wallDistance(sensorX, sensorY, pose[2]);
+    if (Math.abs(distance - wall) <= WALL_GATE) {
+      return 0;
+    }
+    double[] can = project(pose, distance);
+    if (can[0] < SZ_LLx * TILE_SIZE - ZONE_MARGIN || can[0] > SZ_URx * TILE_SIZE + ZONE_MARGIN
+        || can[1] < SZ_LLy * TILE_SIZE - ZONE_MARGIN || can[1] > SZ_URy * TILE_SIZE + ZONE_MARGIN) {
+      return 0;
+    }
+    double tunnel = FieldMap.tunnelDistance(can[0], can[1]);
+    if (tunnel < CAN_RADIUS) {
+      return 0;
+    }
+    double clearance = Math.min(tunnel, FieldMap.wallClearance(can[0], can[1])) - CAN_RADIUS;
+    return CanCandidate.DETECTION_CONFIDENCE * Math.max(0.4, Math.min(1, clearance / CLEARANCE));
+  }
 
+  /**
+   * This method pauses the thread between two checks of isScanning
+   * @return Not used
+   */
+  private static void sleep() {
+    try {
+      Thread.sleep(20);
+    } catch (InterruptedException e) {
+      // there is nothing to be done
+    }
   }
 
 }
@@ -1,16 +1,54 @@
 /**
  * This class is used to detect the weight of a can and give feedback concerning
- * the weight and color of the can through beeps as specified in the requirements document
+ * the weight and color of the can through beeps as specified in the requirements document.
+ * The weight is estimated from the regulation of the claw motor while it closes on the can:
+ * the tacho count and speed are sampled during the hold movement, so no extra movement is
+ * needed. A heavy can makes the regulator lag further behind the commanded position and
+ * take longer to settle than a light one.
+ * The features of a light and of a heavy can are measured in the calibration run and kept in a
+ * file that is loaded at startup.
  */
 package FinalProject;
 
-import lejos.hardware.Sound;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import lejos.hardware.Button;
 import lejos.hardware.motor.EV3MediumRegulatedMotor;
 import static FinalProject.CanColorDetection.*;
 
 public class CanWeightDetection {
+  private static final String FILE = "weight.properties";
+  private static final int SAMPLE_PERIOD = 5; // time between two samples (ms)
+  private static final long MAX_TIMEOUT = 8000; // longest sampled movement (ms)
+  private static final int MAX_SAMPLES = (int) (MAX_TIMEOUT / SAMPLE_PERIOD) + 1;
+  private static final double STEADY_START = 200; // the lag is averaged after this time (ms)
+  private static final double SETTLED = 2; // within this of the final tacho count it is settled (deg)
+  private static final int LIGHT_TONE = 500; // tone duration for a light can (ms)
+  private static final int HEAVY_TONE = 1000; // tone duration for a heavy can (ms)
+
+  // the calibrated model: mean features of a light and of a heavy can, replaced by the values
+  // of the calibration run when there is one
+  private static double lightLag = 4; // (deg)
+  private static double heavyLag = 9; // (deg)
+  private static double lightSettling = 3700; // (ms)
+  private static double heavySettling = 4200; // (ms)
+
   private EV3MediumRegulatedMotor clawMotor;
-  
+
+  // telemetry of the last closing of the claw
+  private static final long[] times = new long[MAX_SAMPLES];
+  private static final int[] tachos = new int[MAX_SAMPLES];
+  private static final float[] speeds = new float[MAX_SAMPLES];
+  private static int count;
+  private static int speed; // the commanded speed (deg/s)
+  private static int rotation; // the commanded rotation (deg)
+
+  private static volatile boolean heavy;
+  private static double lag;
+  private static double settling;
+
   /**
    * This is the constructor for the class
    * @param clawMotor    the medium motor used to hold cans
@@ -26,33 +64,212 @@ public class CanWeightDetection {
    */
   public static void detectCanWeight() {
     ClawMovement.holdCan();
+    giveFeedback();
+  }
+
+  /**
+   * This method gives the feedback for the can held, from its color and from the weight
+   * estimated while the claw closed on it
+   * @return Not used
+   */
+  public static void giveFeedback() {
+    estimateWeight();
+    // the color gives the number of tones, the weight their duration
+    int duration = heavy ? HEAVY_TONE : LIGHT_TONE;
+    // the feedback is played by the AudioFeedback thread while the robot carries on
     if (colorCode == 0) {
-      Sound.playTone(500,1000);
-      Sound.pause(300);
-      Sound.playTone(500,1000);
-      Sound.pause(300);
-      Sound.playTone(500,1000);
-      Sound.pause(300);
-      Sound.playTone(500,1000);
-      Sound.pause(300);
+      AudioFeedback.canPattern(4, duration);
     }
     else if (colorCode == 1) {
-      Sound.playTone(500,1000);
-      Sound.pause(300);
-      Sound.playTone(500,1000);
-      Sound.pause(300);
-      Sound.playTone(500,1000);
-      Sound.pause(300);
+      AudioFeedback.canPattern(3, duration);
     }
     else if (colorCode == 2) {
-      Sound.playTone(500,1000);
-      Sound.pause(300);
-      Sound.playTone(500,1000);
-      Sound.pause(300);
+      AudioFeedback.canPattern(2, duration);
     }
     else {
-      Sound.playTone(500,1000);
-      Sound.pause(300);
+      AudioFeedback.canPattern(1, duration);
+    }
+  }
+
+  /**
+   * This method moves the claw motor by the given rotation while sampling its tacho count
+   * and speed. It is called by the claw thread when the claw closes on a can.
+   * @param motor     the claw motor
+   * @param angle     the rotation of the motor (deg)
+   * @param setSpeed  the speed of the motor (deg/s)
+   * @return Not used
+   */
+  static void sampleRotation(EV3MediumRegulatedMotor motor, int angle, int setSpeed) {
+    speed = setSpeed;
+    rotation = angle;
+    count = 0;
+    int start = motor.getTachoCount();
+    // the movement cannot take more than twice its nominal time, even if the claw stalls
+    long timeout = Math.min(MAX_TIMEOUT, 2000L * Math.abs(angle) / Math.max(setSpeed, 1));
+    long startTime = System.currentTimeMillis();
+    motor.rotate(angle, true);
+    while (true) {
+      long time = System.currentTimeMillis() - startTime;
+      boolean moving = motor.isMoving();
+      if (count < MAX_SAMPLES) {
+        times[count] = time;
+        tachos[count] = Math.abs(motor.getTachoCount() - start);
+        speeds[count] = Math.abs(motor.getRotationSpeed());
+        count++;
+      }
+      if (!moving || time > timeout) {
+        break;
+      }
+      try {
+        Thread.sleep(SAMPLE_PERIOD);
+      } catch (InterruptedException e) {
+        // there is nothing to be done
+      }
+    }
+  }
+
+  /**
+   * This method extracts the features of the last closing of the claw and classifies the
+   * can as heavy or light. The features are the steady-state lag (the mean distance between
+   * the commanded and the measured position once the motor is up to speed) and the settling
+   * time (the time to get within SETTLED of the final position). Each feature is normalized
+   * by the distance between the two calibrated means, and the nearest mean wins.
+   * @return true if the can is heavy
+   */
+  public static boolean estimateWeight() {
+    if (count < 2) {
+      return heavy;
+    }
+    int target = Math.abs(rotation);
+    double lagSum = 0;
+    int lagSamples = 0;
+    for (int i = 0; i < count; i++) {
+      double commanded = Math.min(target, speed * times[i] / 1000.0);
+      if (times[i] >= STEADY_START && commanded < target && speeds[i] > 0) {
+        lagSum += commanded - tachos[i];
+        lagSamples++;
+      }
+    }
+    lag = lagSamples > 0 ? lagSum / lagSamples : 0;
+
+    int last = tachos[count - 1];
+    int settled = count - 1;
+    while (settled > 0 && Math.abs(tachos[settled - 1] - last) <= SETTLED) {
+      settled--;
+    }
+    settling = times[settled];
+
+    double lagScale = Math.max(Math.abs(heavyLag - lightLag), 1e-3);
+    double settlingScale = Math.max(Math.abs(heavySettling - lightSettling), 1e-3);
+    double toLight = Math.pow((lag - lightLag) / lagScale, 2)
+        + Math.pow((settling - lightSettling) / settlingScale, 2);
+    double toHeavy = Math.pow((lag - heavyLag) / lagScale, 2)
+        + Math.pow((settling - heavySettling) / settlingScale, 2);
+    heavy = toHeavy < toLight;
+    return heavy;
+  }
+
+  /**
+   * This method calibrates the model with the last closing of the claw, done on a can of
+   * known weight. It is called by the calibration run, once with each kind of can.
+   * @param isHeavy  true if the can held is heavy
+   * @return Not used
+   */
+  public static void calibrate(boolean isHeavy) {
+    estimateWeight();
+    if (isHeavy) {
+      heavyLag = lag;
+      heavySettling = settling;
+    } else {
+      lightLag = lag;
+      lightSettling = settling;
     }
   }
+
+  /**
+   * This method runs the calibration with a can of each weight, placed in the open claw when
+   * asked, and saves the result
+   * @return Not used
+   */
+  public static void runCalibration() {
+    System.out.println("Light can, then press");
+    Button.waitForAnyPress();
+    ClawMovement.holdCan();
+    calibrate(false);
+    ClawMovement.releaseCan();
+    System.out.println("Heavy can, then press");
+    Button.waitForAnyPress();
+    ClawMovement.holdCan();
+    calibrate(true);
+    ClawMovement.releaseCan();
+    save();
+  }
+
+  /**
+   * This method loads the calibrated model, if it was saved
+   * @return Not used
+   */
+  public static void load() {
+    Properties properties = new Properties();
+    FileInputStream in = null;
+    try {
+      in = new FileInputStream(FILE);
+      properties.load(in);
+      lightLag = Double.parseDouble(properties.getProperty("lightLag"));
+      heavyLag = Double.parseDouble(properties.getProperty("heavyLag"));
+      lightSettling = Double.parseDouble(properties.getProperty("lightSettling"));
+      heavySettling = Double.parseDouble(properties.getProperty("heavySettling"));
+    } catch (IOException e) {
+      // not calibrated yet, the default values are kept
+    } catch (RuntimeException e) {
+      System.err.println("Error: " + e.getMessage());
+    } finally {
+      KinematicsCalibration.close(in);
+    }
+  }
+
+  /**
+   * This method saves the calibrated model
+   * @return Not used
+   */
+  public static void save() {
+    Properties properties = new Properties();
+    properties.setProperty("lightLag", Double.toString(lightLag));
+    properties.setProperty("heavyLag", Double.toString(heavyLag));
+    properties.setProperty("lightSettling", Double.toString(lightSettling));
+    properties.setProperty("heavySettling", Double.toString(heavySettling));
+    FileOutputStream out = null;
+    try {
+      out = new FileOutputStream(FILE);
+      properties.store(out, "Calibrated can weights");
+    } catch (IOException e) {
+      System.err.println("Error: " + e.getMessage());
+    } finally {
+      KinematicsCalibration.close(out);
+    }
+  }
+
+  /**
+   * This method returns the result of the last estimation
+   * @return true if the last can was heavy
+   */
+  public static boolean isHeavy() {
+    return heavy;
+  }
+
+  /**
+   * This method returns the steady-state lag of the last closing of the claw
+   * @return the lag (deg)
+   */
+  public static double getLag() {
+    return lag;
+  }
+
+  /**
+   * This method returns the settling time of the last closing of the claw
+   * @return the settling time (ms)
+   */
+  public static double getSettlingTime() {
+    return settling;
+  }
 }
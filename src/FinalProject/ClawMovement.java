@@ -1,14 +1,44 @@
 /**
  * This class is used to hold and release cans using the
- * claw structure that is set on the medium motor on the robot
+ * claw structure that is set on the medium motor on the robot.
+ * The claw is moved by its own thread, so the robot can keep driving while it opens
+ * or closes; the blocking methods wait for the movement to be over.
  */
 package FinalProject;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import lejos.hardware.motor.EV3MediumRegulatedMotor;
 
 public class ClawMovement {
   private static EV3MediumRegulatedMotor clawMotor;
   private static final int angle = 180;
+  private static final int SPEED = 50;
+
+  /**
+   * The states of the claw
+   */
+  public enum ClawState {
+    OPEN, CLOSED, MOVING
+  }
+
+  private static volatile ClawState clawState = ClawState.OPEN;
+  private static ClawState target = ClawState.OPEN; // state after the last movement requested
+  private static Future<?> lastMovement = done();
+  // one thread runs the movements one after the other, in the order they were requested
+  private static final ExecutorService executor =
+      Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
   
   /**
    * This is the constructor for the class
@@ -20,22 +50,119 @@ public class ClawMovement {
   }
 
   /**
-   * This method is called to hold a can (close the claw)
+   * This method is called to hold a can (close the claw) and waits until it is closed
    * @return Not used
    */
  public static void holdCan() {
-   clawMotor.setSpeed(50);
-   clawMotor.rotate(-angle);
-   clawMotor.stop(true);
+   GyroService.setStationary(true);
+   waitFor(closeAsync());
+   GyroService.setStationary(false);
  }
 
  /**
-  * This method is called to release a can (open the claw)
+  * This method is called to release a can (open the claw) and waits until it is open
   * @return Not used
   */
   public static void releaseCan() {
-    clawMotor.setSpeed(50);
-    clawMotor.rotate(angle);
-    clawMotor.stop(true);
+    GyroService.setStationary(true);
+    waitFor(openAsync());
+    GyroService.setStationary(false);
+  }
+
+  /**
+   * This method starts closing the claw and returns right away
+   * @return the future of the movement, done once the claw is closed
+   */
+  public static synchronized Future<?> closeAsync() {
+    return move(ClawState.CLOSED, -angle);
+  }
+
+  /**
+   * This method starts opening the claw and returns right away
+   * @return the future of the movement, done once the claw is open
+   */
+  public static synchronized Future<?> openAsync() {
+    return move(ClawState.OPEN, angle);
+  }
+
+  /**
+   * This method waits until every movement requested is over
+   * @return Not used
+   */
+  public static void waitForClaw() {
+    Future<?> movement;
+    synchronized (ClawMovement.class) {
+      movement = lastMovement;
+    }
+    waitFor(movement);
+  }
+
+  /**
+   * This method returns the state of the claw
+   * @return OPEN, CLOSED or MOVING
+   */
+  public static ClawState getState() {
+    return clawState;
+  }
+
+  /**
+   * This method queues a movement of the claw, unless the claw already is (or will be)
+   * in the requested state
+   * @param state     the state after the movement
+   * @param rotation  the rotation of the claw motor
+   * @return the future of the movement
+   */
+  private static Future<?> move(final ClawState state, final int rotation) {
+    if (target == state) {
+      return lastMovement;
+    }
+    target = state;
+    lastMovement = executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        clawState = ClawState.MOVING;
+        long start = System.currentTimeMillis();
+        clawMotor.setSpeed(SPEED);
+        if (state == ClawState.CLOSED) {
+          // the closing movement is sampled to estimate the weight of the can
+          CanWeightDetection.sampleRotation(clawMotor, rotation, SPEED);
+        } else {
+          clawMotor.rotate(rotation);
+        }
+        clawMotor.stop(true);
+        TimeCostModel.record(TimeCostModel.CLAW, 1, System.currentTimeMillis() - start);
+        clawState = state;
+      }
+    });
+    return lastMovement;
+  }
+
+  /**
+   * This method returns a future that is already done, used before any movement
+   * @return the future
+   */
+  private static Future<?> done() {
+    FutureTask<Object> task = new FutureTask<Object>(new Runnable() {
+      @Override
+      public void run() {}
+    }, null);
+    task.run();
+    return task;
+  }
+
+  /**
+   * This method waits for a movement to be over
+   * @param movement  the future of the movement
+   * @return Not used
+   */
+  private static void waitFor(Future<?> movement) {
+    try {
+      movement.get();
+    } catch (InterruptedException e) {
+      // keep the interrupt for the caller
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      System.err.println("Error: " + e.getMessage());
+    }
   }
 }
@@ -0,0 +1,325 @@
+/**
+ * This class performs the ultrasonic and light localization in a single rotation. The ultrasonic
+ * readings and the lines crossed by the back light sensor are recorded together with the time
+ * they were taken, so that the heading and the position can be solved at once from the pose
+ * history of the odometer.
+ */
+package FinalProject;
+
+import static FinalProject.Main.*;
+import Odometer.Odometer;
+import Odometer.PoseHistory;
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+import lejos.robotics.SampleProvider;
+
+public class CornerLocalization {
+  //Parameters used to know the location (odometry) and navigate
+  private Odometer odometer;
+  private PoseHistory poseHistory;
+  private EV3LargeRegulatedMotor leftMotor, rightMotor;
+  //Parameters related to the sensors (input)
+  private SampleProvider usSensor;
+  private float[] usData;
+  //Parameters related to wall detection
+  private static final double d = 42.00;
+  private static final double k = 5;
+  private static final double MAX_DISTANCE = 100; // readings above this are clipped
+  private static final double WALL_WINDOW = 5; // readings within this angle of a wall are averaged
+  private static final double MAX_ROTATION = 720; // give up after two full turns
+  private static final int SWEEPS = 3; // sweeps done before the localization fails
+  //The edges are interpolated between samples, so we can rotate faster than ROTATE_SPEED
+  private static final int LOCALIZATION_SPEED = 2 * ROTATE_SPEED;
+  private static final long TIMEOUT = 13000; // two full turns take about 9 s (ms)
+  private static final long SAMPLE_PERIOD = 20; // about the sampling time of the sensor (ms)
+  //Recorded samples
+  private static final int MAX_SAMPLES = (int) (TIMEOUT / SAMPLE_PERIOD) + 1;
+  private static final int MAX_LINES = 16;
+  private long[] sampleTime = new long[MAX_SAMPLES];
+  private float[] sampleDist = new float[MAX_SAMPLES];
+  private double[] sampleAngle = new double[MAX_SAMPLES];
+  private int numSamples = 0;
+  private long[] lineTime = new long[MAX_LINES];
+  private int numLines = 0;
+
+  /**
+   * This is the constructor for the class
+   * @param odometer     The odometer
+   * @param leftMotor    The left motor of the robot
+   * @param rightMotor   The right motor of the robot
+   * @param usSensor     The ultrasonic sensor in the "Distance" mode
+   * @return Not used
+   */
+  public CornerLocalization(Odometer odometer, EV3LargeRegulatedMotor leftMotor,
+      EV3LargeRegulatedMotor rightMotor, SampleProvider usSensor) {
+    this.odometer = odometer;
+    this.poseHistory = odometer.getPoseHistory();
+    this.leftMotor = leftMotor;
+    this.rightMotor = rightMotor;
+    this.usSensor = usSensor;
+    this.usData = new float[usSensor.sampleSize()];
+  }
+
+  /**
+   * This method performs the localization: one rotation to record the samples, then a single
+   * move to the origin, facing the 0 degree direction. The rotation is done again when it did
+   * not sweep a whole wall arc.
+   * @return true if the robot is localized, false if no wall arc was found
+   */
+  public boolean localize() {
+    double[] pose = null;
+    for (int sweep = 0; sweep < SWEEPS && pose == null; sweep++) {
+      GyroService.zero();
+      odometer.setXYT(0.0, 0.0, 0.0);
+      record();
+      pose = solve();
+    }
+    if (pose == null) {
+      System.err.println("Error: no wall arc found, the robot is not localized");
+      return false;
+    }
+    // face the 0 degree direction, so that the gyro can be zeroed in the map frame
+    Navigation.turnTo((360 - pose[2]) % 360);
+    GyroService.zero();
+    odometer.setXYT(pose[0], pose[1], 0.0);
+    Navigation.travelTo(0.0, 0.0);
+    Navigation.turnTo(0);
+    leftMotor.stop(true);
+    rightMotor.stop();
+    GyroService.zero();
+    return true;
+  }
+
+  /**
+   * This method rotates clockwise until both walls have been swept, recording every ultrasonic
+   * reading with the time at which it was taken. The line crossings are recorded by the
+   * LineDetector at the same time.
+   * @return Not used
+   */
+  private void record() {
+    leftMotor.setSpeed(LOCALIZATION_SPEED);
+    rightMotor.setSpeed(LOCALIZATION_SPEED);
+    numSamples = 0;
+    numLines = 0;
+    long cursor = LineDetector.acquire();
+    boolean sawFar = false;
+    boolean facingWall = false;
+    boolean sawFallingEdge = false;
+    boolean sawRisingEdge = false;
+    double turned = 0;
+    double prevTheta = odometer.getXYT()[2];
+    long start = System.currentTimeMillis();
+    leftMotor.forward();
+    rightMotor.backward();
+    while (turned < MAX_ROTATION && numSamples < MAX_SAMPLES
+        && (turned < 360 || !sawRisingEdge)) {
+      long time = System.currentTimeMillis();
+      if (time - start > TIMEOUT) {
+        break;
+      }
+      usSensor.fetchSample(usData, 0);
+      float dist = (float) Math.min(usData[0] * 100, MAX_DISTANCE);
+      sampleTime[numSamples] = time;
+      sampleDist[numSamples] = dist;
+      numSamples++;
+      // falling edge after a reading away from the walls, then the rising edge that ends the
+      // wall arc; when starting in front of the walls, the first partial arc is not counted
+      if (!facingWall && sawFar && dist < d) {
+        facingWall = true;
+        sawFallingEdge = true;
+      } else if (facingWall && dist > d + k) {
+        facingWall = false;
+        sawRisingEdge = sawFallingEdge;
+      }
+      if (dist > d + k) {
+        sawFar = true;
+      }
+      double theta = odometer.getXYT()[2];
+      // the heading of the odometer is kept in case the pose history does not reach back
+      sampleAngle[numSamples - 1] = theta;
+      double step = (theta - prevTheta + 360) % 360;
+      if (step < 180) {
+        // a negative step is jitter of the heading, not almost a full turn
+        turned += step;
+        prevTheta = theta;
+      }
+      long elapsed = System.currentTimeMillis() - time;
+      if (elapsed < SAMPLE_PERIOD) {
+        try {
+          Thread.sleep(SAMPLE_PERIOD - elapsed);
+        } catch (InterruptedException e) {
+          // there is nothing to be done
+        }
+      }
+    }
+    leftMotor.stop(true);
+    rightMotor.stop();
+    long count = LineDetector.getEventCount();
+    for (; cursor < count && numLines < MAX_LINES; cursor++) {
+      long time = LineDetector.getEventTime(cursor);
+      if (time >= 0) {
+        lineTime[numLines++] = time;
+      }
+    }
+    LineDetector.release();
+  }
+
+  /**
+   * This method solves the pose of the robot from the recorded samples. The heading comes from
+   * the arc of readings facing the corner, with edges interpolated between the samples, the
+   * position from the wall distances and, when lines were crossed, from the angles at which
+   * the light sensor saw them.
+   * @return the pose {x, y, deltaTheta}, where deltaTheta is the angle to add to the odometer
+   *         heading to get the map heading, null if no complete wall arc was recorded
+   */
+  private double[] solve() {
+    double[] pose = new double[3];
+    for (int i = 0; i < numSamples; i++) {
+      if (poseHistory.getPoseAt(sampleTime[i], pose)) {
+        sampleAngle[i] = pose[2];
+      }
+    }
+    // find the last complete arc of readings facing the walls
+    double angleA = -1, angleB = -1;
+    boolean sawFar = false;
+    boolean facingWall = false;
+    double fallingAngle = 0;
+    for (int i = 0; i < numSamples; i++) {
+      if (!facingWall && sawFar && sampleDist[i] < d) {
+        facingWall = true;
+        fallingAngle = edgeAngle(i, false);
+      } else if (facingWall && sampleDist[i] > d + k) {
+        facingWall = false;
+        angleA = fallingAngle;
+        angleB = edgeAngle(i, true);
+      }
+      if (sampleDist[i] > d + k) {
+        sawFar = true;
+      }
+    }
+    if (angleA < 0 || angleB < 0) {
+      return null;
+    }
+    // the middle of the arc points to the corner, which is at 225 degrees
+    double arc = (angleB - angleA + 360) % 360;
+    double middle = (angleA + arc / 2) % 360;
+    double deltaTheta = (225 - middle + 360) % 360;
+
+    // the walls are at 180 (y) and 270 (x) degrees, one tile away from the origin
+    double x = -TILE_SIZE + averageDistance(270 - deltaTheta) + US_SENSOR_OFFSET;
+    double y = -TILE_SIZE + averageDistance(180 - deltaTheta) + US_SENSOR_OFFSET;
+
+    // refine with the lines, which are much more precise than the walls
+    double sumX = 0, sumY = 0;
+    int countX = 0, countY = 0;
+    for (int i = 0; i < numLines; i++) {
+      if (!poseHistory.getPoseAt(lineTime[i], pose)) {
+        continue; // older than the history, the heading of the line is not known
+      }
+      double theta = Math.toRadians(pose[2] + deltaTheta);
+      double offsetX = -BACK_SENSOR_OFFSET * Math.sin(theta);
+      double offsetY = -BACK_SENSOR_OFFSET * Math.cos(theta);
+      if (Math.abs(offsetY) > Math.abs(offsetX)) {
+        // the sensor is in front of or behind the robot, so it crossed a vertical line
+        double line = Math.round((x + offsetX) / TILE_SIZE) * TILE_SIZE;
+        sumX += line - offsetX;
+        countX++;
+      } else {
+        double line = Math.round((y + offsetY) / TILE_SIZE) * TILE_SIZE;
+        sumY += line - offsetY;
+        countY++;
+      }
+    }
+    if (countX > 0) {
+      x = sumX / countX;
+    }
+    if (countY > 0) {
+      y = sumY / countY;
+    }
+    return new double[] {x, y, deltaTheta};
+  }
+
+  /**
+   * This method returns the heading of an edge of the wall arc. The distance goes through both
+   * d and d + k; for each threshold, the time of the crossing is interpolated between the two
+   * samples around it and the heading at that time is taken from the pose history. The edge is
+   * the average of the two headings.
+   * @param i       the first sample past the edge
+   * @param rising  true for a rising edge (d, then d + k), false for a falling one
+   * @return the odometer heading of the edge
+   */
+  private double edgeAngle(int i, boolean rising) {
+    double first = rising ? d : d + k;
+    double second = rising ? d + k : d;
+    double angleSecond = crossingAngle(i, second);
+    // the crossing of the first threshold is the last one before the edge
+    int j = i;
+    while (j > 1 && !crosses(sampleDist[j - 1], sampleDist[j], first, rising)) {
+      j--;
+    }
+    if (j < 1 || !crosses(sampleDist[j - 1], sampleDist[j], first, rising)) {
+      return angleSecond;
+    }
+    double angleFirst = crossingAngle(j, first);
+    // average the two headings through the shortest way around the circle
+    double diff = (angleSecond - angleFirst + 540) % 360 - 180;
+    return (angleFirst + diff / 2 + 360) % 360;
+  }
+
+  /**
+   * This method tells whether the distance went through a threshold between two samples
+   * @param prevDist   the previous distance
+   * @param dist       the current distance
+   * @param threshold  the threshold
+   * @param rising     true if the distance should be increasing
+   * @return true if the threshold was crossed
+   */
+  private static boolean crosses(float prevDist, float dist, double threshold, boolean rising) {
+    if (rising) {
+      return prevDist <= threshold && dist > threshold;
+    }
+    return prevDist >= threshold && dist < threshold;
+  }
+
+  /**
+   * This method interpolates the time at which the distance went through a threshold between
+   * a sample and the one before it, and returns the heading of the robot at that time
+   * @param i          the sample after the crossing
+   * @param threshold  the threshold
+   * @return the odometer heading in degrees
+   */
+  private double crossingAngle(int i, double threshold) {
+    if (i < 1 || sampleDist[i] == sampleDist[i - 1]) {
+      return sampleAngle[i];
+    }
+    double ratio = (threshold - sampleDist[i - 1]) / (sampleDist[i] - sampleDist[i - 1]);
+    ratio = Math.max(0, Math.min(1, ratio));
+    long crossingTime = sampleTime[i - 1]
+        + Math.round(ratio * (sampleTime[i] - sampleTime[i - 1]));
+    double[] pose = new double[3];
+    if (!poseHistory.getPoseAt(crossingTime, pose)) {
+      return sampleAngle[i];
+    }
+    return pose[2];
+  }
+
+  /**
+   * This method averages the readings taken while facing the given odometer heading
+   * @param heading  the odometer heading
+   * @return the average distance in cm
+   */
+  private double averageDistance(double heading) {
+    double sum = 0;
+    int count = 0;
+    for (int i = 0; i < numSamples; i++) {
+      double error = Math.abs((sampleAngle[i] - heading + 540) % 360 - 180);
+      if (error <= WALL_WINDOW) {
+        sum += sampleDist[i];
+        count++;
+      }
+    }
+    if (count == 0) {
+      return TILE_SIZE / 2;
+    }
+    return sum / count;
+  }
+}
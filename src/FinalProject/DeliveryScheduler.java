@@ -0,0 +1,94 @@
+/**
+ * This class decides how the cans found in the search zone are brought back. Cans are grouped
+ * into trips of up to CAN_CAPACITY cans: a can joins the current trip only if the detour to pick
+ * it up is cheaper than crossing the tunnel again for it.
+ */
+package FinalProject;
+
+import static FinalProject.Main.*;
+import java.util.List;
+
+public class DeliveryScheduler {
+
+  /**
+   * This method groups the cans into trips
+   * @param cans      the cans to deliver
+   * @param capacity  the maximum number of cans in one trip
+   * @param startX    x of the point where every trip starts and ends, at the end of the tunnel (cm)
+   * @param startY    y of that point (cm)
+   * @param crossingCost  the distance of a round trip from that point to the home corner (cm)
+   * @return the trips, each one being the indexes of its cans in the order to pick them up
+   */
+  public static int[][] schedule(List<CanCandidate> cans, int capacity, double startX,
+      double startY, double crossingCost) {
+    int n = cans.size();
+    boolean[] assigned = new boolean[n];
+    int[][] trips = new int[n][];
+    int numTrips = 0;
+    int left = n;
+    while (left > 0) {
+      // each trip starts with the can closest to the tunnel
+      int first = nearest(cans, assigned, startX, startY);
+      int[] trip = new int[capacity];
+      int size = 0;
+      trip[size++] = first;
+      assigned[first] = true;
+      left--;
+      CanCandidate last = cans.get(first);
+      while (size < capacity && left > 0) {
+        int next = nearest(cans, assigned, last.x, last.y);
+        CanCandidate can = cans.get(next);
+        // distance added to this trip by picking the can up now, compared to the
+        // trip it would need on its own
+        double detour = last.distanceTo(can.x, can.y) + can.distanceTo(startX, startY)
+            - last.distanceTo(startX, startY);
+        double ownTrip = 2 * can.distanceTo(startX, startY) + crossingCost;
+        if (detour >= ownTrip) {
+          break;
+        }
+        trip[size++] = next;
+        assigned[next] = true;
+        left--;
+        last = can;
+      }
+      trips[numTrips] = new int[size];
+      System.arraycopy(trip, 0, trips[numTrips], 0, size);
+      numTrips++;
+    }
+    int[][] result = new int[numTrips][];
+    System.arraycopy(trips, 0, result, 0, numTrips);
+    return result;
+  }
+
+  /**
+   * This method returns the tunnel round trip distance used to compare trips
+   * @param islandX  x of the end of the tunnel on the search zone side (tiles)
+   * @param islandY  y of the end of the tunnel on the search zone side (tiles)
+   * @param bridgeX  x of the start of the tunnel on the home side (tiles)
+   * @param bridgeY  y of the start of the tunnel on the home side (tiles)
+   * @return the distance in cm
+   */
+  public static double crossingCost(double islandX, double islandY, double bridgeX,
+      double bridgeY) {
+    double tunnel = Math.hypot(islandX - bridgeX, islandY - bridgeY);
+    double home = Math.hypot(bridgeX - Homex, bridgeY - Homey);
+    return 2 * (tunnel + home) * TILE_SIZE;
+  }
+
+  /**
+   * This method finds the closest can that is not assigned to a trip yet
+   * @return the index of the can
+   */
+  private static int nearest(List<CanCandidate> cans, boolean[] assigned, double x, double y) {
+    int best = -1;
+    double bestDistance = Double.MAX_VALUE;
+    for (int i = 0; i < cans.size(); i++) {
+      double distance = cans.get(i).distanceTo(x, y);
+      if (!assigned[i] && distance < bestDistance) {
+        best = i;
+        bestDistance = distance;
+      }
+    }
+    return best;
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * This class is the model of the field: the perimeter walls, 15 by 9 tiles with the origin at
+ * the lower left corner, and the tunnel given by the server. It answers the geometric questions
+ * of the services that compare the sensors with the field.
+ */
+package FinalProject;
+
+import static FinalProject.Main.*;
+
+public class FieldMap {
+  public static final int WIDTH = 15; // width of the field in tiles
+  public static final int HEIGHT = 9; // height of the field in tiles
+
+  /**
+   * This method returns the distance from a point to the perimeter wall, along a heading
+   * @param x        the x coordinate of the point (cm)
+   * @param y        the y coordinate of the point (cm)
+   * @param heading  the heading, 0 along y and 90 along x (deg)
+   * @return the distance in cm, infinite if the point is outside of the field
+   */
+  public static double wallDistance(double x, double y, double heading) {
+    if (!isInside(x, y, 0)) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double dx = Math.sin(Math.toRadians(heading));
+    double dy = Math.cos(Math.toRadians(heading));
+    double distance = Double.POSITIVE_INFINITY;
+    if (dx > 1e-9) {
+      distance = Math.min(distance, (WIDTH * TILE_SIZE - x) / dx);
+    } else if (dx < -1e-9) {
+      distance = Math.min(distance, -x / dx);
+    }
+    if (dy > 1e-9) {
+      distance = Math.min(distance, (HEIGHT * TILE_SIZE - y) / dy);
+    } else if (dy < -1e-9) {
+      distance = Math.min(distance, -y / dy);
+    }
+    return distance;
+  }
+
+  /**
+   * This method checks if a segment crosses the tunnel, whose walls would be seen before
+   * the perimeter
+   * @param x        the x coordinate of the start of the segment (cm)
+   * @param y        the y coordinate of the start of the segment (cm)
+   * @param heading  the heading of the segment (deg)
+   * @param length   the length of the segment (cm)
+   * @return true if the segment enters the tunnel
+   */
+  public static boolean crossesTunnel(double x, double y, double heading, double length) {
+    return crossesRectangle(x, y, heading, length, Math.min(TN_LLx, TN_URx) * TILE_SIZE,
+        Math.min(TN_LLy, TN_URy) * TILE_SIZE, Math.max(TN_LLx, TN_URx) * TILE_SIZE,
+        Math.max(TN_LLy, TN_URy) * TILE_SIZE);
+  }
+
+  /**
+   * This method returns the distance from a point to the tunnel
+   * @param x  the x coordinate of the point (cm)
+   * @param y  the y coordinate of the point (cm)
+   * @return the distance in cm, 0 inside the tunnel
+   */
+  public static double tunnelDistance(double x, double y) {
+    double dx = Math.max(0, Math.max(Math.min(TN_LLx, TN_URx) * TILE_SIZE - x,
+        x - Math.max(TN_LLx, TN_URx) * TILE_SIZE));
+    double dy = Math.max(0, Math.max(Math.min(TN_LLy, TN_URy) * TILE_SIZE - y,
+        y - Math.max(TN_LLy, TN_URy) * TILE_SIZE));
+    return Math.hypot(dx, dy);
+  }
+
+  /**
+   * This method returns the distance from a point to the closest perimeter wall
+   * @param x  the x coordinate of the point (cm)
+   * @param y  the y coordinate of the point (cm)
+   * @return the distance in cm, 0 outside of the field
+   */
+  public static double wallClearance(double x, double y) {
+    double clearance = Math.min(Math.min(x, WIDTH * TILE_SIZE - x),
+        Math.min(y, HEIGHT * TILE_SIZE - y));
+    return Math.max(0, clearance);
+  }
+
+  /**
+   * This method checks if a point is in the field, at least a margin away from the walls
+   * @param x       the x coordinate (cm)
+   * @param y       the y coordinate (cm)
+   * @param margin  the margin (cm)
+   * @return true if the point is inside
+   */
+  public static boolean isInside(double x, double y, double margin) {
+    return x >= margin && x <= WIDTH * TILE_SIZE - margin && y >= margin
+        && y <= HEIGHT * TILE_SIZE - margin;
+  }
+
+  /**
+   * This method checks if a segment enters a rectangle (slab method)
+   * @param x        the x coordinate of the start (cm)
+   * @param y        the y coordinate of the start (cm)
+   * @param heading  the heading of the segment (deg)
+   * @param length   the length of the segment (cm)
+   * @param llx      the lower left x of the rectangle (cm)
+   * @param lly      the lower left y of the rectangle (cm)
+   * @param urx      the upper right x of the rectangle (cm)
+   * @param ury      the upper right y of the rectangle (cm)
+   * @return true if the segment enters the rectangle
+   */
+  static boolean crossesRectangle(double x, double y, double heading, double length,
+      double llx, double lly, double urx, double ury) {
+    double dx = Math.sin(Math.toRadians(heading));
+    double dy = Math.cos(Math.toRadians(heading));
+    double enter = 0;
+    double exit = length;
+    double[] start = {x, y};
+    double[] direction = {dx, dy};
+    double[] low = {llx, lly};
+    double[] high = {urx, ury};
+    for (int i = 0; i < 2; i++) {
+      if (Math.abs(direction[i]) < 1e-9) {
+        if (start[i] < low[i] || start[i] > high[i]) {
+          return false;
+        }
+      } else {
+        double t1 = (low[i] - start[i]) / direction[i];
+        double t2 = (high[i] - start[i]) / direction[i];
+        enter = Math.max(enter, Math.min(t1, t2));
+        exit = Math.min(exit, Math.max(t1, t2));
+      }
+    }
+    return enter <= exit;
+  }
+}
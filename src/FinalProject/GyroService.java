@@ -0,0 +1,163 @@
+/**
+ * This class samples the gyro sensor in its own thread and compensates its drift. The bias
+ * (drift rate) is estimated whenever the robot is known to be stationary and is subtracted
+ * continuously from the angle, so the heading can be zeroed without resetting the sensor.
+ * The "Angle" mode only gives whole degrees, so the bias is the least-squares slope of the
+ * angle over several seconds, and a window where the angle moved by a single count is not used:
+ * that is only the quantization of the sensor.
+ */
+package FinalProject;
+
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+import lejos.robotics.SampleProvider;
+
+public class GyroService implements Runnable {
+  private static SampleProvider gyroSensor;
+  private static float[] gyroData;
+  private static EV3LargeRegulatedMotor leftMotor;
+  private static EV3LargeRegulatedMotor rightMotor;
+
+  private static final long GYRO_PERIOD = 10; // sampling period in ms
+  private static final long SETTLE_TIME = 300; // time the wheels must be still before estimating (ms)
+  private static final long BIAS_WINDOW = 5000; // length of a bias measurement (ms)
+  private static final double BIAS_WEIGHT = 0.3; // weight of a new measurement in the estimate
+  private static final double MIN_CHANGE = 2; // counts the angle must move for a measurement (deg)
+
+  private static double rawAngle = 0; // last reading of the sensor
+  private static double bias = 0; // estimated drift in degrees per ms
+  private static double drift = 0; // drift accumulated since startup in degrees
+  private static double zeroAngle = 0; // compensated angle that is reported as 0
+  private static volatile boolean isStationary = false;
+
+  /**
+   * This is the constructor for the class
+   * @param gyroSensor  the gyro sensor in the "Angle" mode
+   * @param leftMotor   the left motor of the robot
+   * @param rightMotor  the right motor of the robot
+   * @return Not used
+   */
+  public GyroService(SampleProvider gyroSensor, EV3LargeRegulatedMotor leftMotor,
+      EV3LargeRegulatedMotor rightMotor) {
+    GyroService.gyroSensor = gyroSensor;
+    GyroService.gyroData = new float[gyroSensor.sampleSize()];
+    GyroService.leftMotor = leftMotor;
+    GyroService.rightMotor = rightMotor;
+  }
+
+  /**
+   * This method is where the gyro is sampled. The drift is integrated at every sample, and while
+   * the robot is still, the slope of the raw angle over a window is used to update the bias.
+   */
+  @Override
+  public void run() {
+    long updateStart, updateEnd;
+    long lastTime = System.currentTimeMillis();
+    long stillSince = -1; // time at which the wheels stopped, -1 while moving
+    long windowStart = -1;
+    // sums of the least-squares fit of the angle against the time in the window
+    double n = 0, sumT = 0, sumA = 0, sumTT = 0, sumTA = 0;
+    double minAngle = 0, maxAngle = 0;
+    while (true) {
+      updateStart = System.currentTimeMillis();
+      gyroSensor.fetchSample(gyroData, 0);
+      synchronized (GyroService.class) {
+        rawAngle = gyroData[0];
+        drift += bias * (updateStart - lastTime);
+      }
+      lastTime = updateStart;
+
+      // the robot is still if told so, or if the wheels have not moved for a while
+      if (isStationary || (!leftMotor.isMoving() && !rightMotor.isMoving())) {
+        if (stillSince < 0) {
+          stillSince = updateStart;
+        }
+      } else {
+        stillSince = -1;
+        windowStart = -1;
+      }
+      if (stillSince >= 0 && updateStart - stillSince >= SETTLE_TIME) {
+        if (windowStart < 0) {
+          windowStart = updateStart;
+          n = sumT = sumA = sumTT = sumTA = 0;
+          minAngle = maxAngle = gyroData[0];
+        }
+        double t = updateStart - windowStart;
+        double a = gyroData[0];
+        n++;
+        sumT += t;
+        sumA += a;
+        sumTT += t * t;
+        sumTA += t * a;
+        minAngle = Math.min(minAngle, a);
+        maxAngle = Math.max(maxAngle, a);
+        if (t >= BIAS_WINDOW) {
+          double denominator = n * sumTT - sumT * sumT;
+          if (maxAngle - minAngle >= MIN_CHANGE && denominator > 0) {
+            double measured = (n * sumTA - sumT * sumA) / denominator;
+            synchronized (GyroService.class) {
+              bias = (1 - BIAS_WEIGHT) * bias + BIAS_WEIGHT * measured;
+            }
+          }
+          windowStart = -1;
+        }
+      }
+
+      // this ensures that the gyro is only sampled once every period
+      updateEnd = System.currentTimeMillis();
+      if (updateEnd - updateStart < GYRO_PERIOD) {
+        try {
+          Thread.sleep(GYRO_PERIOD - (updateEnd - updateStart));
+        } catch (InterruptedException e) {
+          // there is nothing to be done
+        }
+      }
+    }
+  }
+
+  /**
+   * This method returns the compensated angle, between 0 and 360 degrees
+   * @return the angle in degrees
+   */
+  public static synchronized double getAngle() {
+    double angle = (rawAngle - drift - zeroAngle) % 360;
+    if (angle < 0) {
+      angle += 360;
+    }
+    return angle;
+  }
+
+  /**
+   * This method makes the current heading the 0 degree direction. It replaces the reset of the
+   * sensor, which blocks and throws away the bias estimate.
+   * @return Not used
+   */
+  public static synchronized void zero() {
+    zeroAngle = rawAngle - drift;
+  }
+
+  /**
+   * This method is used to tell the service that the robot is not moving (during claw actions
+   * or color scans for example), so the bias can be estimated
+   * @param stationary  true if the robot is not moving
+   * @return Not used
+   */
+  public static void setStationary(boolean stationary) {
+    isStationary = stationary;
+  }
+
+  /**
+   * This method returns the drift compensated since startup
+   * @return the drift in degrees
+   */
+  public static synchronized double getDriftEstimate() {
+    return drift;
+  }
+
+  /**
+   * This method returns the current bias estimate
+   * @return the bias in degrees per second
+   */
+  public static synchronized double getBias() {
+    return bias * 1000;
+  }
+}
@@ -0,0 +1,263 @@
+/**
+ * This class calibrates the effective wheel radius and wheel base of the robot, and keeps them
+ * in a file that is loaded at startup.
+ * The wheel radius comes from driving across grid lines: the lines are one tile apart, so the
+ * tacho counts between the first and the last line give the distance per degree of wheel. The
+ * wheel base comes from spinning in place: the gyro gives the rotation, and the wheel radius
+ * turns the difference of the tacho counts into the distance driven by each wheel.
+ * The robot must be placed a few centimeters behind a line, facing across the lines, with
+ * four lines ahead of it.
+ */
+package FinalProject;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import Odometer.Odometer;
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+import static FinalProject.Main.*;
+
+public class KinematicsCalibration {
+  private static final String FILE = "kinematics.properties";
+  private static final int LINES = 4; // lines crossed to measure the wheel radius
+  private static final int TURNS = 3; // turns done to measure the wheel base
+  private static final int CALIBRATION_SPEED = 100; // slow, so the lines are sharp (deg/s)
+  private static final int MAX_SAMPLES = 2000;
+  private static final long SAMPLE_PERIOD = 5; // period of the tacho samples (ms)
+  // the results outside of these are measurement errors
+  private static final double MIN_RADIUS = 1.5, MAX_RADIUS = 2.6;
+  private static final double MIN_BASE = 7, MAX_BASE = 13;
+
+  private static long[] sampleTime = new long[MAX_SAMPLES];
+  private static double[] sampleTacho = new double[MAX_SAMPLES];
+  private static int numSamples;
+
+  /**
+   * This method loads the calibrated wheel radius and wheel base into Main, if they were saved
+   * @return Not used
+   */
+  public static void load() {
+    Properties properties = new Properties();
+    FileInputStream in = null;
+    try {
+      in = new FileInputStream(FILE);
+      properties.load(in);
+      double radius = Double.parseDouble(properties.getProperty("wheelRadius"));
+      double base = Double.parseDouble(properties.getProperty("wheelBase"));
+      if (isValid(radius, base)) {
+        WHEEL_RADIUS = radius;
+        WHEEL_BASE = base;
+      }
+    } catch (IOException e) {
+      // not calibrated yet, the default values are kept
+    } catch (RuntimeException e) {
+      System.err.println("Error: " + e.getMessage());
+    } finally {
+      close(in);
+    }
+  }
+
+  /**
+   * This method saves the wheel radius and wheel base of Main
+   * @return Not used
+   */
+  public static void save() {
+    Properties properties = new Properties();
+    properties.setProperty("wheelRadius", Double.toString(WHEEL_RADIUS));
+    properties.setProperty("wheelBase", Double.toString(WHEEL_BASE));
+    FileOutputStream out = null;
+    try {
+      out = new FileOutputStream(FILE);
+      properties.store(out, "Calibrated kinematics");
+    } catch (IOException e) {
+      System.err.println("Error: " + e.getMessage());
+    } finally {
+      close(out);
+    }
+  }
+
+  /**
+   * This method runs the calibration, applies the result to the odometer and saves it
+   * @param odometer    the odometer
+   * @param leftMotor   the left motor of the robot
+   * @param rightMotor  the right motor of the robot
+   * @return Not used
+   */
+  public static void calibrate(Odometer odometer, EV3LargeRegulatedMotor leftMotor,
+      EV3LargeRegulatedMotor rightMotor) {
+    double forward = measureRadius(leftMotor, rightMotor, 1);
+    double backward = measureRadius(leftMotor, rightMotor, -1);
+    double radius =
+        forward > 0 && backward > 0 ? (forward + backward) / 2 : Math.max(forward, backward);
+    if (radius <= 0) {
+      System.err.println("Error: not enough lines to calibrate");
+      return;
+    }
+    double base = measureBase(leftMotor, rightMotor, radius);
+    if (!isValid(radius, base)) {
+      System.err.println("Error: calibration out of range " + radius + ", " + base);
+      return;
+    }
+    WHEEL_RADIUS = radius;
+    WHEEL_BASE = base;
+    odometer.setKinematics(base, radius);
+    save();
+  }
+
+  /**
+   * This method drives across the lines and measures the wheel radius
+   * @param leftMotor   the left motor of the robot
+   * @param rightMotor  the right motor of the robot
+   * @param direction   1 to drive forwards, -1 to drive back
+   * @return the wheel radius in cm, 0 if less than two lines were seen
+   */
+  private static double measureRadius(EV3LargeRegulatedMotor leftMotor,
+      EV3LargeRegulatedMotor rightMotor, int direction) {
+    long cursor = LineDetector.acquire();
+    int rotation = (int) (direction * 180 * (LINES - 0.5) * TILE_SIZE / (Math.PI * WHEEL_RADIUS));
+    leftMotor.setSpeed(CALIBRATION_SPEED);
+    rightMotor.setSpeed(CALIBRATION_SPEED);
+    leftMotor.rotate(rotation, true);
+    rightMotor.rotate(rotation, true);
+    record(leftMotor, rightMotor);
+    long count = LineDetector.getEventCount();
+    LineDetector.release();
+    if (count - cursor < 2) {
+      return 0;
+    }
+    double first = tachoAt(LineDetector.getEventTime(cursor));
+    double last = tachoAt(LineDetector.getEventTime(count - 1));
+    double degrees = Math.abs(last - first);
+    if (degrees == 0) {
+      return 0;
+    }
+    return (count - 1 - cursor) * TILE_SIZE * 180 / (Math.PI * degrees);
+  }
+
+  /**
+   * This method spins in place and measures the wheel base
+   * @param leftMotor   the left motor of the robot
+   * @param rightMotor  the right motor of the robot
+   * @param radius      the calibrated wheel radius (cm)
+   * @return the wheel base in cm
+   */
+  private static double measureBase(EV3LargeRegulatedMotor leftMotor,
+      EV3LargeRegulatedMotor rightMotor, double radius) {
+    int rotation = (int) (TURNS * 360 * WHEEL_BASE / (2 * radius));
+    int leftStart = leftMotor.getTachoCount();
+    int rightStart = rightMotor.getTachoCount();
+    leftMotor.setSpeed(ROTATE_SPEED);
+    rightMotor.setSpeed(ROTATE_SPEED);
+    leftMotor.rotate(rotation, true);
+    rightMotor.rotate(-rotation, true);
+    // follow the gyro through the full turns, since its angle wraps around
+    double turned = 0;
+    double previous = GyroService.getAngle();
+    while (leftMotor.isMoving() || rightMotor.isMoving()) {
+      double angle = GyroService.getAngle();
+      turned += wrap(angle - previous);
+      previous = angle;
+      sleep(SAMPLE_PERIOD);
+    }
+    sleep(300); // let the gyro settle
+    turned += wrap(GyroService.getAngle() - previous);
+    int difference = (leftMotor.getTachoCount() - leftStart)
+        - (rightMotor.getTachoCount() - rightStart);
+    return difference * radius / turned;
+  }
+
+  /**
+   * This method records the mean tacho count of the wheels until they stop
+   * @param leftMotor   the left motor of the robot
+   * @param rightMotor  the right motor of the robot
+   * @return Not used
+   */
+  private static void record(EV3LargeRegulatedMotor leftMotor, EV3LargeRegulatedMotor rightMotor) {
+    numSamples = 0;
+    while (leftMotor.isMoving() || rightMotor.isMoving()) {
+      if (numSamples < MAX_SAMPLES) {
+        sampleTime[numSamples] = System.currentTimeMillis();
+        sampleTacho[numSamples] = (leftMotor.getTachoCount() + rightMotor.getTachoCount()) / 2.0;
+        numSamples++;
+      }
+      sleep(SAMPLE_PERIOD);
+    }
+  }
+
+  /**
+   * This method interpolates the recorded tacho count at a time
+   * @param time  the time (ms)
+   * @return the mean tacho count of the wheels
+   */
+  private static double tachoAt(long time) {
+    if (numSamples == 0) {
+      return 0;
+    }
+    if (time <= sampleTime[0]) {
+      return sampleTacho[0];
+    }
+    for (int i = 1; i < numSamples; i++) {
+      if (sampleTime[i] >= time) {
+        double ratio =
+            (double) (time - sampleTime[i - 1]) / Math.max(1, sampleTime[i] - sampleTime[i - 1]);
+        return sampleTacho[i - 1] + ratio * (sampleTacho[i] - sampleTacho[i - 1]);
+      }
+    }
+    return sampleTacho[numSamples - 1];
+  }
+
+  /**
+   * This method checks that the kinematics are possible for this robot
+   * @param radius  the wheel radius (cm)
+   * @param base    the wheel base (cm)
+   * @return true if both are in range
+   */
+  private static boolean isValid(double radius, double base) {
+    return radius >= MIN_RADIUS && radius <= MAX_RADIUS && base >= MIN_BASE && base <= MAX_BASE;
+  }
+
+  /**
+   * This method brings an angle between -180 and 180 degrees
+   * @param angle  the angle (deg)
+   * @return the same angle between -180 and 180
+   */
+  private static double wrap(double angle) {
+    angle = angle % 360;
+    if (angle > 180) {
+      angle -= 360;
+    } else if (angle < -180) {
+      angle += 360;
+    }
+    return angle;
+  }
+
+  /**
+   * This method closes a file, if it was opened
+   * @param file  the file
+   * @return Not used
+   */
+  static void close(Closeable file) {
+    if (file != null) {
+      try {
+        file.close();
+      } catch (IOException e) {
+        // there is nothing to be done
+      }
+    }
+  }
+
+  /**
+   * This method pauses the thread
+   * @param time  the time in ms
+   * @return Not used
+   */
+  private static void sleep(long time) {
+    try {
+      Thread.sleep(time);
+    } catch (InterruptedException e) {
+      // there is nothing to be done
+    }
+  }
+}
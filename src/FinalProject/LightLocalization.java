@@ -1,12 +1,11 @@
 /**
- * This class performs the light localization
+ * This class performs the light localization, with the lines detected by the LineDetector
  */
 package FinalProject;
 
 import Odometer.Odometer;
+import Odometer.PoseHistory;
 import lejos.hardware.motor.EV3LargeRegulatedMotor;
-import lejos.hardware.sensor.SensorModes;
-import lejos.robotics.SampleProvider;
 
 
 public class LightLocalization {
@@ -16,14 +15,9 @@ public class LightLocalization {
     private Odometer odometer;
     private EV3LargeRegulatedMotor leftMotor, rightMotor;
     public Navigation navigation;
-    //Parameters related to the light sensor (input)
-    private SensorModes lightSensor = Main.back_sensor;
-    private float[] colorData;
-    private float prevColor = 0;
+    //Parameters related to the lines detected (input)
     private int numLines = 0;
     private double[] lineAngle = new double[4];
-    private static SampleProvider gyro_sp = Main.gyro_Sensor.getMode("Angle");
-    private float[] gyroData = new float[gyro_sp.sampleSize()];
 
     /**
      * This is the constructor for the class 
@@ -47,22 +41,16 @@ public class LightLocalization {
         Navigation.turnTo(45);
         leftMotor.setSpeed(ROTATION_SPEED);
         rightMotor.setSpeed(ROTATION_SPEED);
-        // use a differential filter to detect lines
-        this.colorData = new float[lightSensor.sampleSize()];
-        SampleProvider color  = lightSensor.getMode("Red");
-        color.fetchSample(colorData, 0);
-        float colordiff = prevColor - colorData[0];
-        prevColor = colorData[0];
-        while (colordiff < 0.07) {//We move forward until we detect a line
-            color.fetchSample(colorData, 0);
-            colordiff = prevColor - colorData[0];
-            //prevColor = colorData[0];
-            leftMotor.forward();
-            rightMotor.forward();
+        long cursor = LineDetector.acquire();
+        leftMotor.forward();
+        rightMotor.forward();
+        while (LineDetector.getEventCount() <= cursor) {//We move forward until we detect a line
+            Thread.yield();
         }
         //Once a line is detected, we move backward a specific distance
         leftMotor.stop(true);
         rightMotor.stop();
+        LineDetector.release();
         leftMotor.rotate(convertDistance(Main.WHEEL_RADIUS, -12), true);
         rightMotor.rotate(convertDistance(Main.WHEEL_RADIUS, -12), false);
 
@@ -73,42 +61,45 @@ public class LightLocalization {
      * @return Not used
      */
     public void localize() {
-        SampleProvider color  = lightSensor.getMode("Red");
         leftMotor.setSpeed(ROTATION_SPEED);
         rightMotor.setSpeed(ROTATION_SPEED);
-        Main.gyro_Sensor.reset();
-        float[] colorData = new float[color.sampleSize()]; 
-        color.fetchSample(colorData, 0);
-        prevColor = colorData[0];
+        GyroService.zero();
         //Start by getting close to the origin
         findOrigin();
-        this.colorData = new float[lightSensor.sampleSize()];
+        PoseHistory poseHistory = odometer.getPoseHistory();
+        double[] pose = new double[3];
+        numLines = 0;
+        long cursor = LineDetector.acquire();
+        leftMotor.forward();
+        rightMotor.backward();
         while (numLines < 4) {//Rotate and detect the 4 lines the sensor comes across
-            leftMotor.forward();
-            rightMotor.backward();
-            color.fetchSample(colorData, 0);
-            float colordiff = prevColor - colorData[0];
-            if (colordiff >= 0.07) {
-                lineAngle[numLines] =gyroFetch();//Store the angle for each line
-                numLines++;
+            gyroFetch();//Keep the odometer heading on the gyro, so the history has the gyro angles
+            long count = LineDetector.getEventCount();
+            for (; cursor < count && numLines < 4; cursor++) {
+                long time = LineDetector.getEventTime(cursor);
+                if (time >= 0 && poseHistory.getPoseAt(time, pose)) {
+                    lineAngle[numLines] = pose[2];//Store the angle at the time of each line
+                    numLines++;
+                }
             }
         }
         leftMotor.stop(true);
         rightMotor.stop();
+        LineDetector.release();
         double dX, dY, thetax, thetay;//Variables used to calculate the 0� direction and the origin
         //From the 4 angles stored, calculate how off from the origin and 0� the robot is
         thetay = lineAngle[3] - lineAngle[1];
         thetax = lineAngle[2] - lineAngle[0];
         dX = -1 * SENSOR_DIST * Math.cos(Math.toRadians(thetay / 2));
         dY = -1 * SENSOR_DIST * Math.cos(Math.toRadians(thetax / 2));
-        odometer.setXYT(dX, dY, odometer.getXYT()[2]-10);//Set the accurate current position
+        odometer.setXYT(dX, dY, odometer.getXYT()[2]);//Set the accurate current position
         Navigation.travelTo(0.0, 0.0);//Navigate to the origin
         leftMotor.setSpeed(ROTATION_SPEED);
         rightMotor.setSpeed(ROTATION_SPEED);
         Navigation.turnTo(0);
         leftMotor.stop(true);
         rightMotor.stop();
-        Main.gyro_Sensor.reset();
+        GyroService.zero();
     }
 
     /**
@@ -120,25 +111,25 @@ public class LightLocalization {
         int corner = Main.corner;
         if(corner == 0) {
             odometer.setXYT(Main.TILE_SIZE, Main.TILE_SIZE, 0.0);
-            Main.gyro_Sensor.reset();
+            GyroService.zero();
             Main.Homex = 1; Main.Homey = 1;
         }
         else if(corner == 1) {
             Navigation.turnTo(90);
             odometer.setXYT(14*Main.TILE_SIZE, Main.TILE_SIZE, 0.0);
-            Main.gyro_Sensor.reset();
+            GyroService.zero();
             Main.Homex = 14; Main.Homey = 1;
         }
         else if(corner == 2) {
             Navigation.turnTo(180);
             odometer.setXYT(14*Main.TILE_SIZE, 8*Main.TILE_SIZE, 0.0);
-            Main.gyro_Sensor.reset();
+            GyroService.zero();
             Main.Homex = 14; Main.Homey = 8;
         }
         else if(corner == 3) {
             Navigation.turnTo(270);
             odometer.setXYT(Main.TILE_SIZE, 8*Main.TILE_SIZE, 0.0);
-            Main.gyro_Sensor.reset();
+            GyroService.zero();
             Main.Homex = 1; Main.Homey = 8;
         }
     }
@@ -148,7 +139,6 @@ public class LightLocalization {
      * @return Not used
      */
     private double gyroFetch() {
-        Main.gyro_Sensor.fetchSample(gyroData, 0);
         angleCorrection();
         return odometer.getXYT()[2];
     }
@@ -159,12 +149,7 @@ public class LightLocalization {
      * @return Not used
      */
     private void angleCorrection() {
-      Main.gyro_Sensor.fetchSample(gyroData, 0);        
-      if (gyroData[0] >= 0) {
-            odometer.setXYT(odometer.getXYT()[0], odometer.getXYT()[1],gyroData[0]);
-        }else {
-            odometer.setXYT(odometer.getXYT()[0], odometer.getXYT()[1], 360+gyroData[0]);
-        }
+        odometer.setTheta(GyroService.getAngle());
     }
 
     /**
@@ -0,0 +1,243 @@
+/**
+ * This class detects the grid lines with the light sensor in the back. It samples the "Red"
+ * mode at the rate of the sensor in its own thread, while at least one user needs it, and
+ * records each line crossing as an event with the time and the index of the sample where the
+ * line started. The reflectance of the floor and of the lines are learned while running, and
+ * the detection thresholds sit between the two, with hysteresis. The floor level is seeded
+ * from the median of the first samples, and the contrast is also learned from the dips that
+ * stay under the threshold, so a floor with little contrast is calibrated as well. Only the
+ * dips that last as long as a line are learned from, and one dip can only lower the contrast
+ * by a bounded fraction, so noise and a single dark spot cannot take the thresholds down.
+ * Users read the events with a cursor: they keep the count of events they have handled and
+ * read the ones recorded since.
+ */
+package FinalProject;
+
+import java.util.Arrays;
+import lejos.robotics.SampleProvider;
+
+public class LineDetector implements Runnable {
+  private static SampleProvider lightSensor;
+  private static float[] lightData;
+
+  private static final long SAMPLE_PERIOD = 1; // the sensor gives about one sample per ms
+  private static final long IDLE_PERIOD = 20; // period while nobody uses the detector (ms)
+  private static final int SEED_SAMPLES = 31; // samples whose median seeds the floor level
+  private static final double FLOOR_WEIGHT = 0.01; // weight of a sample near the floor level
+  private static final double DIP_WEIGHT = 0.001; // weight of a darker sample, not to follow lines
+  private static final double BRIGHT_WEIGHT = 0.1; // weight of a brighter one, seeded on a line
+  private static final double LINE_WEIGHT = 0.3; // weight of a line in the line level
+  private static final double ENTER = 0.6; // a line starts at this fraction of the contrast
+  private static final double EXIT = 0.3; // and ends under this fraction of the contrast
+  private static final double INITIAL_CONTRAST = 0.12; // floor minus line before any line is seen
+  private static final double MIN_CONTRAST = 0.05; // the contrast is never learned smaller
+  private static final int MIN_LINE_SAMPLES = 8; // a dip shorter than this is noise, not a line
+  private static final double MAX_DECREASE = 0.1; // fraction of the contrast one dip can remove
+  private static final int MAX_EVENTS = 64; // events kept
+
+  private static int users = 0;
+  private static long sampleCount = 0;
+  private static long eventCount = 0;
+  private static final long[] eventTime = new long[MAX_EVENTS];
+  private static final long[] eventSample = new long[MAX_EVENTS];
+
+  private static double floorLevel = -1; // reflectance of the floor, -1 until it is seeded
+  private static double contrast = INITIAL_CONTRAST; // floor minus line reflectance
+  private static final double[] seed = new double[SEED_SAMPLES];
+  private static int seedCount = 0;
+
+  /**
+   * This is the constructor for the class
+   * @param lightSensor  the back light sensor in the "Red" mode
+   * @return Not used
+   */
+  public LineDetector(SampleProvider lightSensor) {
+    LineDetector.lightSensor = lightSensor;
+    LineDetector.lightData = new float[lightSensor.sampleSize()];
+  }
+
+  /**
+   * This method is where the sensor is sampled. A line starts when the reflectance drops under
+   * the floor level by ENTER of the contrast, and ends when it is back within EXIT of it. The
+   * floor level follows the samples off the lines and the contrast follows the darkest sample
+   * between two returns to the floor, whether or not it was detected as a line, when the dip
+   * lasted at least MIN_LINE_SAMPLES samples.
+   */
+  @Override
+  public void run() {
+    boolean onLine = false;
+    double lineMinimum = 0;
+    double dipMinimum = 0;
+    int dipSamples = 0; // samples of the current line or dip
+    long updateStart, updateEnd;
+    while (true) {
+      updateStart = System.currentTimeMillis();
+      if (!isActive()) {
+        onLine = false;
+        sleep(IDLE_PERIOD);
+        continue;
+      }
+      lightSensor.fetchSample(lightData, 0);
+      double sample = lightData[0];
+      synchronized (LineDetector.class) {
+        sampleCount++;
+        double drop = floorLevel - sample;
+        boolean seeding = floorLevel < 0;
+        if (seeding) {
+          onLine = false;
+          dipSamples = 0;
+          seed[seedCount++] = sample;
+          if (seedCount == SEED_SAMPLES) {
+            double[] sorted = seed.clone();
+            Arrays.sort(sorted);
+            floorLevel = sorted[SEED_SAMPLES / 2];
+            dipMinimum = floorLevel;
+          }
+        } else if (!onLine && drop >= ENTER * contrast) {
+          onLine = true;
+          lineMinimum = sample;
+          dipSamples++;
+          int i = (int) (eventCount % MAX_EVENTS);
+          eventTime[i] = updateStart;
+          eventSample[i] = sampleCount;
+          eventCount++;
+        } else if (onLine) {
+          lineMinimum = Math.min(lineMinimum, sample);
+          if (drop < EXIT * contrast) {
+            onLine = false;
+            if (dipSamples >= MIN_LINE_SAMPLES) {
+              learnContrast(floorLevel - lineMinimum);
+            }
+            dipMinimum = sample;
+            dipSamples = 0;
+          } else {
+            dipSamples++;
+          }
+        } else {
+          // a dip back to the floor that was too shallow for the threshold is a line as well
+          dipMinimum = Math.min(dipMinimum, sample);
+          if (drop < EXIT * contrast) {
+            if (floorLevel - dipMinimum >= MIN_CONTRAST && dipSamples >= MIN_LINE_SAMPLES) {
+              learnContrast(floorLevel - dipMinimum);
+            }
+            dipMinimum = sample;
+            dipSamples = 0;
+          } else {
+            dipSamples++;
+          }
+        }
+        if (!seeding && !onLine) {
+          // follow slow changes of the floor reflectance, but not the lines
+          double weight = FLOOR_WEIGHT;
+          if (drop >= EXIT * contrast) {
+            weight = DIP_WEIGHT;
+          } else if (-drop >= EXIT * contrast) {
+            weight = BRIGHT_WEIGHT;
+          }
+          floorLevel = (1 - weight) * floorLevel + weight * sample;
+        }
+      }
+      // this ensures that the detector only runs once every period
+      updateEnd = System.currentTimeMillis();
+      if (updateEnd - updateStart < SAMPLE_PERIOD) {
+        sleep(SAMPLE_PERIOD - (updateEnd - updateStart));
+      }
+    }
+  }
+
+  /**
+   * This method learns the contrast from the depth of a line, lowering it by MAX_DECREASE of
+   * its value at most
+   * @param depth  the floor level minus the darkest sample of the line
+   * @return Not used
+   */
+  private static void learnContrast(double depth) {
+    double learned = (1 - LINE_WEIGHT) * contrast + LINE_WEIGHT * depth;
+    contrast = Math.max(MIN_CONTRAST, Math.max((1 - MAX_DECREASE) * contrast, learned));
+  }
+
+  /**
+   * This method starts the sampling for a new user. The floor level is seeded again when
+   * the detector starts after being idle, since the robot may be somewhere else on the field.
+   * @return the event count, to be used as the cursor of the user
+   */
+  public static synchronized long acquire() {
+    if (users == 0) {
+      floorLevel = -1;
+      seedCount = 0;
+    }
+    users++;
+    return eventCount;
+  }
+
+  /**
+   * This method stops the sampling for a user, the detector idles once it has no user left
+   * @return Not used
+   */
+  public static synchronized void release() {
+    if (users > 0) {
+      users--;
+    }
+  }
+
+  /**
+   * This method returns the number of lines detected since startup
+   * @return the event count
+   */
+  public static synchronized long getEventCount() {
+    return eventCount;
+  }
+
+  /**
+   * This method returns the time at which a line was detected
+   * @param event  the number of the event
+   * @return the time in ms, -1 if the event is too old to be kept
+   */
+  public static synchronized long getEventTime(long event) {
+    if (event < 0 || event >= eventCount || eventCount - event > MAX_EVENTS) {
+      return -1;
+    }
+    return eventTime[(int) (event % MAX_EVENTS)];
+  }
+
+  /**
+   * This method returns the index of the sample at which a line was detected
+   * @param event  the number of the event
+   * @return the sample index, -1 if the event is too old to be kept
+   */
+  public static synchronized long getEventSample(long event) {
+    if (event < 0 || event >= eventCount || eventCount - event > MAX_EVENTS) {
+      return -1;
+    }
+    return eventSample[(int) (event % MAX_EVENTS)];
+  }
+
+  /**
+   * This method returns the number of samples taken since startup
+   * @return the sample count
+   */
+  public static synchronized long getSampleCount() {
+    return sampleCount;
+  }
+
+  /**
+   * This method returns whether the detector is sampling
+   * @return true if it has a user
+   */
+  private static synchronized boolean isActive() {
+    return users > 0;
+  }
+
+  /**
+   * This method pauses the thread
+   * @param time  the time in ms
+   * @return Not used
+   */
+  private static void sleep(long time) {
+    try {
+      Thread.sleep(time);
+    } catch (InterruptedException e) {
+      // there is nothing to be done
+    }
+  }
+}
@@ -11,7 +11,6 @@
 package FinalProject;
 
 import Odometer.*;
-import lejos.hardware.Sound;
 import lejos.hardware.ev3.LocalEV3;
 import lejos.hardware.motor.EV3LargeRegulatedMotor;
 import lejos.hardware.motor.EV3MediumRegulatedMotor;
@@ -48,13 +47,16 @@ public class Main {
   public static EV3ColorSensor back_sensor;
   
   // Robot hardware related parameters:
-  public static final double WHEEL_RADIUS = 2.05;
-  public static final double WHEEL_BASE = 9.5;
+  public static double WHEEL_RADIUS = 2.05; // replaced by the calibrated value if there is one
+  public static double WHEEL_BASE = 9.5; // replaced by the calibrated value if there is one
   public static final int ROTATE_SPEED = 100;
   public static final int FORWARD_SPEED = 150;
+  public static final double BACK_SENSOR_OFFSET = 12.0; // distance from the wheel axis to the back light sensor
+  public static final double US_SENSOR_OFFSET = 5.0; // distance from the wheel axis to the ultrasonic sensor
   
   // Project specifications:
   public static final double TILE_SIZE = 30.48;
+  public static final long TIME_LIMIT = 300000; // length of a run in ms
   public static int corner = 3;
   public static int Homex = 1;
   public static int Homey = 8;
@@ -70,6 +72,8 @@ public class Main {
   public static int SZ_LLy = 6;
   public static int SZ_URx = 10;
   public static int SZ_URy = 9;
+  public static final int CAN_CAPACITY = 1; // cans that can be brought back in one trip
+  public static final boolean CALIBRATION_RUN = false; // calibrate the kinematics, the can weights and the colors instead of the mission
   
   /**
    * This is the main method that runs on the EV3 
@@ -78,6 +82,10 @@ public class Main {
    * @throws OdometerExceptions , InterruptedException
    */ 
   public static void main(String[] args) throws OdometerExceptions, InterruptedException {
+    // Use the wheel radius, wheel base, can weights and colors of the last calibration
+    KinematicsCalibration.load();
+    CanWeightDetection.load();
+    CanColorDetection.load();
     
     // Setup ultrasonic sensor
     // 1. Create a port object attached to a physical port (done above)
@@ -113,7 +121,6 @@ public class Main {
     EV3GyroSensor gyroSensor = new EV3GyroSensor(gyroPort);
     gyro_Sensor = gyroSensor;
     SampleProvider gyroValue = gyro_Sensor.getMode("Angle"); // gyroValue provides samples from this instance
-    float[] gyroData = new float[gyroValue.sampleSize()]; // gyroData is the buffer in which data are returned
 
     // Setup the odometer
     Odometer odometer = Odometer.getOdometer(leftMotor, rightMotor, WHEEL_BASE, WHEEL_RADIUS);
@@ -122,14 +129,48 @@ public class Main {
     Thread odoThread = new Thread(odometer);
     odoThread.start();
     
+    AudioFeedback.start();
+    
+    PowerGovernor powerGovernor = new PowerGovernor(leftMotor, rightMotor);
+    Thread governorThread = new Thread(powerGovernor);
+    governorThread.setDaemon(true);
+    governorThread.start();
+    
+    GyroService gyroService = new GyroService(gyroValue, leftMotor, rightMotor);
+    Thread gyroThread = new Thread(gyroService);
+    gyroThread.start();
+    
+    LineDetector lineDetector = new LineDetector(back_sensor.getMode("Red"));
+    Thread lineDetectorThread = new Thread(lineDetector);
+    lineDetectorThread.start();
+    
+    OdometryCorrection odometryCorrection = new OdometryCorrection(odometer);
+    Thread correctionThread = new Thread(odometryCorrection);
+    correctionThread.start();
+    
+    WallCorrection wallCorrection = new WallCorrection(odometer, usValue);
+    Thread wallCorrectionThread = new Thread(wallCorrection);
+    wallCorrectionThread.start();
+    
+    ParticleFilter particleFilter = new ParticleFilter(odometer, leftMotor, rightMotor);
+    Thread particleFilterThread = new Thread(particleFilter);
+    particleFilterThread.start();
+    
+    MotionMonitor motionMonitor = new MotionMonitor(odometer, leftMotor, rightMotor);
+    Thread monitorThread = new Thread(motionMonitor);
+    monitorThread.start();
+    
     CanScanner canScanner = new CanScanner(usSensor,usData,leftMotor,rightMotor, odometer);
     Thread canScannerThread = new Thread(canScanner);
     canScannerThread.start();
     
     // Set up objects of classes
     @SuppressWarnings("unused")
-    Navigation navigator = new Navigation(odometer, leftMotor, rightMotor, gyroValue, gyroData);
-    MapDriver mapDriver = new MapDriver(odometer);
+    Navigation navigator = new Navigation(odometer, leftMotor, rightMotor);
+    @SuppressWarnings("unused")
+    CanApproach canApproach = new CanApproach(odometer, leftMotor, rightMotor, usValue);
+    @SuppressWarnings("unused")
+    TunnelTraversal tunnelTraversal = new TunnelTraversal(odometer, leftMotor, rightMotor);
     @SuppressWarnings("unused")
     ClawMovement clawMovement = new ClawMovement(clawMotor);
     @SuppressWarnings("unused")
@@ -137,17 +178,31 @@ public class Main {
     @SuppressWarnings("unused")
     CanWeightDetection canWeightDetector = new CanWeightDetection(clawMotor);
     
+    if (CALIBRATION_RUN) {
+      Thread.sleep(2000); // the gyro bias is estimated while the robot is still
+      KinematicsCalibration.calibrate(odometer, leftMotor, rightMotor);
+      CanWeightDetection.runCalibration();
+      CanColorDetection.runCalibration();
+      return;
+    }
+    
+    // The references of the color sensor are taken with nothing in front of it
+    CanColorDetection.calibrate();
+    
+    // The robot is still while waiting for the server, which gives the gyro bias
+    GyroService.setStationary(true);
     Wifi wifi = new Wifi();
+    GyroService.setStationary(false);
     
+    // The time limit counts from the moment the game parameters are received
+    MissionScheduler.start();
 
-    USLocalization usLocalizer = new USLocalization(odometer, leftMotor, rightMotor, usSensor);
-    USLocalization.doUSLocalization();
-    
+    // Ultrasonic and light localization in a single rotation, done as the first phase of the mission
+    CornerLocalization cornerLocalizer = new CornerLocalization(odometer, leftMotor, rightMotor,
+        usValue);
     LightLocalization lightLocalizer = new LightLocalization(odometer, leftMotor, rightMotor);
-    lightLocalizer.localize();
-    lightLocalizer.startCorner();
     
-    Sound.beepSequenceUp();
+    MapDriver mapDriver = new MapDriver(odometer, cornerLocalizer, lightLocalizer);
     mapDriver.drive();
   }
 }
@@ -1,62 +1,210 @@
 /**
  * This class is used to decide how the robot should navigate through the map
- * and when to search for a can
+ * and when to search for a can. The mission is run as a state machine: each phase
+ * returns an event when it completes, and the event decides the next phase.
  */
 package FinalProject;
 
 
 import static FinalProject.Navigation.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import FinalProject.MissionState.Event;
+import FinalProject.MissionState.Phase;
 import Odometer.Odometer;
-import lejos.hardware.Sound;
 import static FinalProject.Main.*;
 import static FinalProject.CanScanner.*;
 
 
 public class MapDriver{
-  private static int counter;
-  private static int counter_1;
-  private static int counter_2;
-  private static int counter_3;
-  private static int counter_4;
+  private static final int NUMBER_OF_CANS = 5;
+  // when true, one search pass records every can, and the cans are then delivered in trips
+  private static final boolean BATCHING = true;
+  private static final int MAX_RECOVERIES = 2; // times a phase is run again when blocked
   private static double islandX;
   private static double islandY;
   private static double bridgeX;
   private static double bridgeY;
   
   private Odometer odometer;
+  private CornerLocalization cornerLocalizer;
+  private LightLocalization lightLocalizer;
+  private MissionState state = new MissionState();
+  private MissionState checkpoint = state.copy();
+  private boolean blocked = false; // the robot stayed blocked on a leg of the current phase
+  private int recoveries = 0; // times the current phase was run again
+  // scanning positions planned to cover the search zone: {x, y, heading}
+  private double[][] scanPositions;
+  
   /**
    * This is the constructor for the class 
-   * @param odo        The odometer
+   * @param odometer         The odometer
+   * @param cornerLocalizer  The localization done in the starting corner
+   * @param lightLocalizer   The light localization, used to set the starting corner
    * @return Not used
    */
   //default constructor
-  public MapDriver(Odometer odometer) {
+  public MapDriver(Odometer odometer, CornerLocalization cornerLocalizer,
+      LightLocalization lightLocalizer) {
     this.odometer = odometer;
+    this.cornerLocalizer = cornerLocalizer;
+    this.lightLocalizer = lightLocalizer;
   }
   
   /**
-   * This is the main method that decides where the robot should go
+   * This is the main method that runs the mission until all the cans are delivered
+   * or the search zone has been fully scanned. When the robot stayed blocked on a leg of a
+   * phase (a stall it could not back off from), the state is restored from the checkpoint
+   * taken at the start of the phase and the phase is run again from where the robot is.
    * @return Not used
    * @throws InterruptedExcepption
    */
   public void drive() throws InterruptedException{
-    // repeat for 5 times
-    for (int i=0; i<5; i++) {
-    moveToBridge();
-    travelThroughBridge();
-    moveToSearchZone();
-    searchCan();
+    while (state.phase != Phase.DONE) {
+      if (recoveries == 0) {
+        checkpoint = state.copy();
+      }
+      blocked = false;
+      long phaseStart = System.currentTimeMillis();
+      Event event = runPhase(state.phase);
+      if (blocked && recoveries < MAX_RECOVERIES) {
+        recoveries++;
+        resume();
+        continue;
+      }
+      recoveries = 0;
+      // a phase that ended blocked took longer than it normally would
+      if (!blocked) {
+        TimeCostModel.recordPhase(state.phase, System.currentTimeMillis() - phaseStart);
+      }
+      state.phase = nextPhase(state.phase, event);
+    }
+  }
+
+  /**
+   * This method restores the state saved at the start of the current phase, so that the
+   * phase runs again
+   * @return Not used
+   */
+  private void resume() {
+    state = checkpoint.copy();
+    OpponentTracker.setCans(state.world == null ? new ArrayList<CanCandidate>()
+        : state.world.getCandidates(), state.target);
+  }
+
+  /**
+   * This method travels to a point of the map, and records it when the robot stayed blocked
+   * on the way, so that the phase is run again
+   * @param x  the x coordinate (tiles)
+   * @param y  the y coordinate (tiles)
+   * @return Not used
+   */
+  private void reach(double x, double y) {
+    if (!travelTo(x, y)) {
+      blocked = true;
+    }
+  }
+
+  /**
+   * This method runs a phase of the mission
+   * @param phase  the phase to run
+   * @return the event that ended the phase
+   * @throws InterruptedException
+   */
+  private Event runPhase(Phase phase) throws InterruptedException {
+    switch (phase) {
+      case LOCALIZE:
+        return localize();
+      case TUNNEL_OUT:
+        moveToBridge();
+        travelThroughBridge();
+        moveToSearchZone();
+        return Event.COMPLETED;
+      case SEARCH:
+        return BATCHING ? searchAllCans() : searchCan();
+      case APPROACH:
+        return moveToCan() ? Event.COMPLETED : missedCan();
+      case IDENTIFY:
+        identifyCan();
+        state.hasCan = true;
+        return nextCanInTrip();
+      case RETURN:
+        return moveCanBack();
+      case DELIVER:
+        return goHome();
+      default:
+        return Event.FINISHED;
+    }
+  }
+
+  /**
+   * This method decides the next phase of the mission from the event that ended the current one
+   * @param phase  the current phase
+   * @param event  the event that ended it
+   * @return the next phase
+   */
+  private static Phase nextPhase(Phase phase, Event event) {
+    if (event == Event.FINISHED) {
+      return Phase.DONE;
+    }
+    switch (phase) {
+      case LOCALIZE:
+        return Phase.TUNNEL_OUT;
+      case TUNNEL_OUT:
+        return Phase.SEARCH;
+      case SEARCH:
+        if (event == Event.CAN_FOUND) {
+          return Phase.APPROACH;
+        } else if (event == Event.ZONE_EXHAUSTED || event == Event.OUT_OF_TIME) {
+          return Phase.RETURN;
+        }
+        return Phase.SEARCH;
+      case APPROACH:
+        if (event == Event.NO_CAN) {
+          return Phase.SEARCH;
+        } else if (event == Event.CAN_FOUND) {
+          return Phase.APPROACH; // the next can of the trip
+        } else if (event == Event.ZONE_EXHAUSTED) {
+          return Phase.RETURN; // no can left in the trip, bring back the ones held
+        }
+        return Phase.IDENTIFY;
+      case IDENTIFY:
+        // in a batch, go to the next can of the trip
+        return event == Event.CAN_FOUND ? Phase.APPROACH : Phase.RETURN;
+      case RETURN:
+        return Phase.DELIVER;
+      case DELIVER:
+        return Phase.TUNNEL_OUT;
+      default:
+        return Phase.DONE;
     }
   }
 
+  /**
+   * This method localizes the robot in its starting corner. Without a pose, the robot cannot
+   * navigate, so the mission stops.
+   * @return the event that ended the phase
+   */
+  private Event localize() {
+    if (!cornerLocalizer.localize()) {
+      return Event.FINISHED;
+    }
+    lightLocalizer.startCorner();
+    // track the pose from here on, to recover from bumps and slips
+    ParticleFilter.enable();
+    AudioFeedback.localized();
+    return Event.COMPLETED;
+  }
+
   /**
    * This method uses the class parameters in the main class to decide how to travel from the
    * initial corner to the beginning of the tunnel
    * @return Not used
    */
   public void moveToBridge() {
-    ClawMovement.holdCan();
+    // close the claw for the tunnel while driving the first leg
+    ClawMovement.closeAsync();
     if (Math.abs(TN_URy-TN_LLy) < Math.abs(TN_URx-TN_LLx)){
       bridgeY = TN_LLy + 0.5;
       bridgeX = TN_LLx;
@@ -65,8 +213,9 @@ public class MapDriver{
       bridgeX = TN_LLx + 0.5;
       bridgeY = TN_LLy;
     }
-    travelTo(bridgeX-0.5,bridgeY);
-    travelTo(bridgeX,bridgeY);
+    reach(bridgeX-0.5,bridgeY);
+    reach(bridgeX,bridgeY);
+    ClawMovement.waitForClaw();
   }
 
   /**
@@ -83,8 +232,11 @@ public class MapDriver{
       islandX = TN_LLx + 0.5;
       islandY = TN_LLy + Math.abs(TN_URy-TN_LLy) + 0.5;
     }
-    travelTo(islandX,islandY);
-    ClawMovement.releaseCan();
+    if (!TunnelTraversal.traverse(bridgeX, bridgeY, islandX, islandY)) {
+      blocked = true;
+    }
+    // open the claw while driving to the search zone
+    ClawMovement.openAsync();
   }
 
   /**
@@ -93,268 +245,359 @@ public class MapDriver{
    * @return Not used
    */
   public void moveToSearchZone() {
-    travelTo(SZ_LLx,SZ_LLy);
+    reach(SZ_LLx,SZ_LLy);
     turnTo(0);
   }
   
   /**
-   * This method is used to travel through the search zone and search for cans
-   * It is where the CanScanner class is activated using the isScanning parameter
-   * to search for cans at certain waypoints
-   * @return Not used
+   * This method is used to search for a can. A can already known from an earlier scan is
+   * taken first. Otherwise the robot scans from the next planned position that covers a part
+   * of the zone not scanned yet, and every can seen in the sweep is added to the world model.
+   * @return CAN_FOUND if a can was selected, NO_CAN if not, ZONE_EXHAUSTED when
+   *         there is no scanning position left and OUT_OF_TIME when it is time to go home
    * @throws InterruptedException
    */
-  public void searchCan() throws InterruptedException{
-    int SZ_length = SZ_URy - SZ_LLy;
-    int SZ_width = SZ_URx - SZ_LLx;
-    
-    // search on line 1
-    if(counter < SZ_length) {
-      // start from the previous scanning position
-      travelTo(SZ_LLx,SZ_LLy+counter_1);
-      // Position the heading of the robot to positive y axis
-      turnTo(0);
-      // start the CanScanner thread
-      CanScanner.initialHeading = 0;
-      isScanning = true;
-      // let the program sleep for 3 seconds to leave 
-      // enough time for scanning
-      TimeUnit.SECONDS.sleep(3);
-      // detected a can while scanning
-      if (isScanning == false) {
-        moveToCan(CanScanner.degreesOfTurning,CanScanner.detectedCanDistance);
-        doColorDetection();
-        doWeightDetection();
-        moveCanBack();
-        return;
-      }
-      // did not find a can during the scan
-      else {
-        // manually stop the CanScanner thread after 3 seconds
-        isScanning = false;
-        // reset the heading to prepare for the next scanning in the next tile
-        turnTo(0);
-        counter_1++;
-        travelTo(SZ_LLx,SZ_LLy+counter_1);
-        counter++;
-        if (counter_1 < SZ_length) {
-          searchCan(); // recursive method
-        }
-      }
+  public Event searchCan() throws InterruptedException{
+    initSearch();
+    double[] odoData = odometer.getXYT();
+    CanCandidate known = state.world.bestCandidate(odoData[0], odoData[1]);
+    if (known != null) {
+      return goForCan(known);
     }
-    
-    // search on line 2
-    else if (counter >= SZ_length && counter < SZ_length + SZ_width) {
-      travelTo(SZ_LLx,SZ_URy);
-      // start from the previous scanning position
-      travelTo(SZ_LLx+counter_2,SZ_URy);
-      // Position the heading of the robot to positive x axis
-      turnTo(90);
-      CanScanner.initialHeading = 90;
-      // start the CanScanner thread
-      isScanning = true;
-      // let the program sleep for 3 seconds to leave 
-      // enough time for scanning
-      TimeUnit.SECONDS.sleep(3);
-      // detected a can while scanning
-      if (isScanning == false) {
-        moveToCan(CanScanner.degreesOfTurning,CanScanner.detectedCanDistance);
-        doColorDetection();
-        doWeightDetection();
-        moveCanBack();
-        return;
-      }
-      // did not find a can during the scan
-      else {
-        // manually stop the CanScanner thread after 3 seconds
-        isScanning = false;
-        // reset the heading to prepare for the next scanning in the next tile
-        turnTo(90);
-        counter_2++;
-        travelTo(SZ_LLx+counter_2,SZ_URy);
-        counter++;
-        if (counter_2 < SZ_width) {
-          searchCan(); // recursive method
-        }
-      }
+    // skip the positions that would not cover anything new
+    while (state.scanIndex < scanPositions.length
+        && state.world.isScanned(scanPositions[state.scanIndex], CanScanner.TIGGER_DISTANCE)) {
+      state.scanIndex++;
+    }
+    if (state.scanIndex >= scanPositions.length) {
+      return Event.ZONE_EXHAUSTED;
+    }
+    double[] position = scanPositions[state.scanIndex];
+    if (!hasTimeToScan(position)) {
+      return Event.OUT_OF_TIME;
+    }
+    scanFrom(position);
+    state.scanIndex++;
+    odoData = odometer.getXYT();
+    known = state.world.bestCandidate(odoData[0], odoData[1]);
+    if (known != null) {
+      return goForCan(known);
     }
-    
-    //search on line 3
-    else if (counter >= SZ_length + SZ_width && counter < 2*SZ_length + SZ_width) {
-      travelTo(SZ_LLx,SZ_URy);
-      travelTo(SZ_URx,SZ_URy);
-      // start from the previous scanning position
-      travelTo(SZ_URx,SZ_URy-counter_3);
-      // Position the heading of the robot to negative y axis
-      turnTo(180);
-      // start the CanScanner thread
-      CanScanner.initialHeading = 180;
-      isScanning = true;
-      // let the program sleep for 3 seconds to leave 
-      // enough time for scanning
-      TimeUnit.SECONDS.sleep(3);
-      // detected a can while scanning
-      if (isScanning == false) {
-        moveToCan(CanScanner.degreesOfTurning,CanScanner.detectedCanDistance);
-        doColorDetection();
-        doWeightDetection();
-        moveCanBack();
-        return;
+    // did not find a can during the scan: the robot leaves at the end of the sweep, as the
+    // SearchPlanner expects, and turns to the next scanning heading once there
+    return Event.NO_CAN;
+  }
+
+  /**
+   * This method is used in the batching mode. The first trip scans from every planned
+   * position and records all the cans seen. The cans are then grouped into trips by the
+   * DeliveryScheduler, and each call returns the first can of the current trip.
+   * @return NO_CAN while the zone is being scanned, CAN_FOUND when a can is selected,
+   *         ZONE_EXHAUSTED when there is no can left and OUT_OF_TIME when it is time to go home
+   * @throws InterruptedException
+   */
+  public Event searchAllCans() throws InterruptedException {
+    initSearch();
+    if (state.trips == null) {
+      if (state.scanIndex < scanPositions.length) {
+        if (!hasTimeToScan(scanPositions[state.scanIndex])) {
+          // stop scanning, and deliver what was found
+          state.scanIndex = scanPositions.length;
+          return Event.NO_CAN;
+        }
+        scanFrom(scanPositions[state.scanIndex]);
+        state.scanIndex++;
+        return Event.NO_CAN;
       }
-      // did not find a can during the scan
-      else {
-        // manually stop the CanScanner thread after 3 seconds
-        isScanning = false;
-        // reset the heading to prepare for the next scanning in the next tile
-        turnTo(180);
-        counter_3++;
-        travelTo(SZ_URx,SZ_URy-counter_3);
-        counter++;
-        if (counter_3 < SZ_length) {
-          searchCan(); // recursive method
+      List<CanCandidate> cans = state.world.getCandidates();
+      int[][] trips = DeliveryScheduler.schedule(cans, CAN_CAPACITY, islandX * TILE_SIZE,
+          islandY * TILE_SIZE, DeliveryScheduler.crossingCost(islandX, islandY, bridgeX, bridgeY));
+      state.trips = new CanCandidate[trips.length][];
+      for (int i = 0; i < trips.length; i++) {
+        state.trips[i] = new CanCandidate[trips[i].length];
+        for (int j = 0; j < trips[i].length; j++) {
+          state.trips[i][j] = cans.get(trips[i][j]);
         }
       }
+      state.batch = 0;
+      state.tripCan = 0;
     }
-    
-    // search on line 4
-    else if (counter >= 2*SZ_length + SZ_width && counter <  2*SZ_length + 2*SZ_width) {
-      travelTo(SZ_URx,SZ_LLy);
-      // start from the previous scanning position
-      travelTo(SZ_URx-counter_4,SZ_LLy);
-      // Position the heading of the robot to negative x axis
-      turnTo(-90);
-      // start the CanScanner thread
-      CanScanner.initialHeading = -90;
-      isScanning = true;
-      // let the program sleep for 3 seconds to leave 
-      // enough time for scanning
-      TimeUnit.SECONDS.sleep(3);
-      // detected a can while scanning
-      if (isScanning == false) {
-        moveToCan(CanScanner.degreesOfTurning,CanScanner.detectedCanDistance);
-        doColorDetection();
-        doWeightDetection();
-        moveCanBack();
-        return;
-      }
-      // did not find a can during the scan
-      else {
-        // manually stop the CanScanner thread after 3 seconds
-        isScanning = false;
-        // reset the heading to prepare for the next scanning in the next tile
-        turnTo(-90);
-        counter_4++;
-        travelTo(SZ_URx-counter_4,SZ_LLy);
-        counter++;
-        if (counter_4 < SZ_width) {
-          searchCan(); // recursive method
-        }
+    if (state.batch < state.trips.length
+        && state.world.getDeliveredCount() < NUMBER_OF_CANS) {
+      if (state.tripCan == 0) {
+        pickCheapestTrip();
       }
+      return goForCan(state.trips[state.batch][state.tripCan]);
     }
+    return Event.ZONE_EXHAUSTED;
   }
 
   /**
-   * This method is used to move to a detected can
-   * @param detectedCanHeading  the angle of the robot when facing the detected can
-   * @param detectedCanDistance the distance to the can given by the ultrasonic sensor when facing the can
+   * This method plans the scanning positions and creates the world model on the first search
    * @return Not used
    */
-  private void moveToCan(double detectedCanHeading, double detectedCanDistance) {
-    detectedCanDistance = detectedCanDistance / (double)180 * Math.PI; // CONVERT TO RADIAN
+  private void initSearch() {
+    if (scanPositions == null) {
+      scanPositions = SearchPlanner.plan(SZ_LLx, SZ_LLy, SZ_URx, SZ_URy,
+          CanScanner.TIGGER_DISTANCE, SZ_LLx, SZ_LLy);
+    }
+    if (state.world == null) {
+      state.world = new WorldModel(SZ_LLx, SZ_LLy, SZ_URx, SZ_URy);
+    }
+  }
+
+  /**
+   * This method selects a known can if it can still be brought back in time
+   * @param can  the can
+   * @return CAN_FOUND if the can was selected, OUT_OF_TIME otherwise
+   */
+  private Event goForCan(CanCandidate can) {
     double[] odoData = odometer.getXYT();
-    double scanningPositionX = odoData[0];
-    double scanningPositionY = odoData[1];
-    double canPositionX;
-    double canPositionY;
-    
-    
-    if (CanScanner.initialHeading == 0) {
-      canPositionX = scanningPositionX + detectedCanDistance * Math.sin(detectedCanHeading);
-      canPositionY = scanningPositionY + detectedCanDistance * Math.cos(detectedCanHeading);
-      travelTo(canPositionX,canPositionY);
-      travelTo(scanningPositionX,scanningPositionY);
-      turnTo(0);
-    }
-    if (CanScanner.initialHeading == 90) {
-      canPositionX = scanningPositionX + detectedCanDistance * Math.cos(detectedCanHeading);
-      canPositionY = scanningPositionY - detectedCanDistance * Math.sin(detectedCanHeading);
-      travelTo(canPositionX,canPositionY);
-      travelTo(scanningPositionX,scanningPositionY);
-      turnTo(90);
-    }
-    if (CanScanner.initialHeading == 180) {
-      canPositionX = scanningPositionX - detectedCanDistance * Math.sin(detectedCanHeading);
-      canPositionY = scanningPositionY - detectedCanDistance * Math.cos(detectedCanHeading);
-      travelTo(canPositionX,canPositionY);
-      travelTo(scanningPositionX,scanningPositionY);
-      turnTo(180);
-    }
-    if (CanScanner.initialHeading == -90) {
-      canPositionX = scanningPositionX - detectedCanDistance * Math.cos(detectedCanHeading);
-      canPositionY = scanningPositionY + detectedCanDistance * Math.sin(detectedCanHeading);
-      travelTo(canPositionX,canPositionY);
-      travelTo(scanningPositionX,scanningPositionY);
-      turnTo(-90);
+    double[][] path = {{odoData[0] / TILE_SIZE, odoData[1] / TILE_SIZE},
+        {can.x / TILE_SIZE, can.y / TILE_SIZE}};
+    double time = TimeCostModel.travelTime(path) + TimeCostModel.cost(TimeCostModel.CLAW, 1)
+        + TimeCostModel.cost(TimeCostModel.COLOR_ID, 1)
+        + MissionScheduler.estimateReturn(can.x / TILE_SIZE, can.y / TILE_SIZE, bridgeX,
+            bridgeY, islandX, islandY);
+    if (!MissionScheduler.hasTimeFor(time)) {
+      return Event.OUT_OF_TIME;
     }
+    selectCan(can);
+    return Event.CAN_FOUND;
   }
 
   /**
-   * This method is called to do a color detection and it calls the CanColorDetection class
+   * This method moves the remaining trip that takes the least time to the current one
    * @return Not used
    */
-  private void doColorDetection() {
-    CanColorDetection.detectCanColor();
+  private void pickCheapestTrip() {
+    int best = state.batch;
+    double bestTime = Double.MAX_VALUE;
+    for (int i = state.batch; i < state.trips.length; i++) {
+      double time = MissionScheduler.estimateTrip(state.trips[i][0], bridgeX, bridgeY, islandX,
+          islandY);
+      if (time < bestTime) {
+        best = i;
+        bestTime = time;
+      }
+    }
+    CanCandidate[] swap = state.trips[state.batch];
+    state.trips[state.batch] = state.trips[best];
+    state.trips[best] = swap;
   }
-  
+
   /**
-   * This method is called to do a weight detection and it calls the CanWeightDetection class
+   * This method tells whether there is enough time to scan from a position and still
+   * go back home
+   * @param position  the scanning position {x, y, heading}
+   * @return true if there is enough time
+   */
+  private boolean hasTimeToScan(double[] position) {
+    double[] odoData = odometer.getXYT();
+    double[][] path = {{odoData[0] / TILE_SIZE, odoData[1] / TILE_SIZE},
+        {position[0], position[1]}};
+    double time = TimeCostModel.travelTime(path) + TimeCostModel.cost(TimeCostModel.SCAN, 1)
+        + MissionScheduler.estimateReturn(position[0], position[1], bridgeX, bridgeY, islandX,
+            islandY);
+    return MissionScheduler.hasTimeFor(time);
+  }
+
+  /**
+   * This method goes to a scanning position, does a full sweep with the CanScanner and
+   * records what it saw in the world model
+   * @param position  the scanning position {x, y, heading}
    * @return Not used
+   * @throws InterruptedException
    */
-  private void doWeightDetection() {
-    CanWeightDetection.detectCanWeight();
+  private void scanFrom(double[] position) throws InterruptedException {
+    // start from the previous scanning position
+    reach(position[0], position[1]);
+    // Position the heading of the robot for the scan
+    turnTo((position[2] + 360) % 360);
+    // start the CanScanner thread, recording every can of the sweep
+    CanScanner.initialHeading = position[2];
+    isScanning = true;
+    // let the program sleep for 3 seconds to leave 
+    // enough time for scanning
+    long scanStart = System.currentTimeMillis();
+    TimeUnit.SECONDS.sleep(3);
+    TimeCostModel.record(TimeCostModel.SCAN, 1, System.currentTimeMillis() - scanStart);
+    // manually stop the CanScanner thread after 3 seconds
+    isScanning = false;
+    synchronized (CanScanner.detections) {
+      state.world.recordScan(position, CanScanner.TIGGER_DISTANCE, CanScanner.detections);
+      CanScanner.detections.clear();
+    }
+    OpponentTracker.setCans(state.world.getCandidates(), state.target);
   }
-  
+
   /**
-   * This method is used to return a can to the lower left corner of the search zone
-   *  and then to the starting corner by calling the goHome method
+   * This method makes a known can the next one to pick up
+   * @param can  the can
    * @return Not used
    */
-  public void moveCanBack() {
-    if (CanScanner.initialHeading == 0) {
-      travelTo(SZ_LLx,SZ_LLy);
-      goHome();
-    }
-    if (CanScanner.initialHeading == 90) {
-      travelTo(SZ_LLx,SZ_URy);
-      travelTo(SZ_LLx,SZ_LLy);
-      goHome();
-    }
-    if (CanScanner.initialHeading == 180) {
-      travelTo(SZ_URx,SZ_URy);
-      travelTo(SZ_LLx,SZ_URy);
-      travelTo(SZ_LLx,SZ_LLy);
-      goHome();
-    }
-    if (CanScanner.initialHeading == -90) {
-      travelTo(SZ_URx,SZ_LLy);
-      travelTo(SZ_LLx,SZ_LLy);
-      goHome();
+  private void selectCan(CanCandidate can) {
+    state.target = can;
+    state.canX = can.x;
+    state.canY = can.y;
+    state.scanX = can.scanX;
+    state.scanY = can.scanY;
+    OpponentTracker.setCans(state.world.getCandidates(), can);
+  }
+
+  /**
+   * This method records the can as picked up and moves on to the next can of the current
+   * trip, in the batching mode
+   * @return CAN_FOUND if the trip has another can, COMPLETED otherwise
+   */
+  private Event nextCanInTrip() {
+    state.world.pickUp(state.target);
+    OpponentTracker.setCans(state.world.getCandidates(), null);
+    if (state.trips == null) {
+      return Event.COMPLETED;
+    }
+    state.tripCan++;
+    if (state.tripCan < state.trips[state.batch].length
+        && state.world.getDeliveredCount() + state.tripCan < NUMBER_OF_CANS) {
+      selectCan(state.trips[state.batch][state.tripCan]);
+      return Event.CAN_FOUND;
+    }
+    return Event.COMPLETED;
+  }
+
+  /**
+   * This method is used to move to the selected can, ranging it on the way
+   * @return true if the can is in front of the claw
+   */
+  private boolean moveToCan() {
+    ClawMovement.waitForClaw();
+    return CanApproach.approach(state.canX, state.canY);
+  }
+
+  /**
+   * This method handles a can that the approach did not find where it was expected: it is
+   * made less likely in the world model, and the search goes on without it
+   * @return CAN_FOUND if the trip has another can, ZONE_EXHAUSTED if the trip is over with cans
+   *         held, NO_CAN to search again
+   */
+  private Event missedCan() {
+    state.world.miss(state.target);
+    state.target = null;
+    OpponentTracker.setCans(state.world.getCandidates(), null);
+    if (state.trips == null) {
+      return Event.NO_CAN;
+    }
+    state.tripCan++;
+    if (state.tripCan < state.trips[state.batch].length) {
+      selectCan(state.trips[state.batch][state.tripCan]);
+      return Event.CAN_FOUND;
     }
+    if (state.hasCan) {
+      return Event.ZONE_EXHAUSTED;
+    }
+    // nothing held, go on with the next trip
+    state.batch++;
+    state.tripCan = 0;
+    return Event.NO_CAN;
   }
 
   /**
-   * This method is used to return a can to the starting corner from the lower
-   * left corner of the search zone
+   * This method identifies the can in front of the claw. The color detection was started
+   * during the approach and is finished before the claw closes, so the claw does not move the
+   * can under the sensor; if it failed, it is done once more with the can in place. The weight
+   * is estimated from the closing, and the feedback is given once both are known. The can is kept even when its
+   * color could not be identified, but no feedback is given for it.
    * @return Not used
    */
-  private void goHome() {
-    travelTo(islandX,islandY);
-    travelTo(bridgeX,bridgeY);
-    travelTo(Homex,Homey);
-    ClawMovement.releaseCan();
-    travelTo(Homex, Homey);
-    Sound.twoBeeps();
-    Sound.twoBeeps();
-    Sound.beep();
+  private void identifyCan() {
+    GyroService.setStationary(true);
+    int color = CanColorDetection.awaitColor();
+    if (color < 0) {
+      // the detection started during the approach may have swept before the can was in front
+      color = CanColorDetection.awaitColor();
+    }
+    ClawMovement.closeAsync();
+    ClawMovement.waitForClaw();
+    GyroService.setStationary(false);
+    if (color < 0) {
+      System.err.println("Error: the color of the can was not identified");
+      return;
+    }
+    CanWeightDetection.giveFeedback();
+  }
+  
+  /**
+   * This method is used to return to the lower left corner of the search zone, and then
+   * through the tunnel. If there is not enough time left to get through the tunnel, the
+   * robot stops before it rather than being caught inside.
+   * @return COMPLETED once through the tunnel, FINISHED if the robot stopped before it
+   */
+  public Event moveCanBack() {
+    if (state.hasCan) {
+      reach(state.scanX, state.scanY);
+    }
+    reach(SZ_LLx,SZ_LLy);
+    double[][] tunnel = {{SZ_LLx, SZ_LLy}, {islandX, islandY}, {bridgeX, bridgeY}};
+    if (!MissionScheduler.hasTimeFor(TimeCostModel.travelTime(tunnel))) {
+      return Event.FINISHED;
+    }
+    reach(islandX,islandY);
+    if (!TunnelTraversal.traverse(islandX, islandY, bridgeX, bridgeY)) {
+      blocked = true;
+    }
+    return Event.COMPLETED;
+  }
+
+  /**
+   * This method is used to bring the can to the starting corner once through the tunnel
+   * @return FINISHED when no trip is left, COMPLETED otherwise
+   */
+  private Event goHome() {
+    reach(Homex,Homey);
+    if (state.hasCan) {
+      ClawMovement.releaseCan();
+      reach(Homex, Homey);
+      AudioFeedback.delivered();
+      state.hasCan = false;
+      state.world.deliverCarried();
+      state.trip++;
+      if (state.trips != null) {
+        state.batch++;
+        state.tripCan = 0;
+      }
+    }
+    boolean noCanLeft = state.trips != null ? state.batch >= state.trips.length
+        : state.scanIndex >= scanPositions.length && state.world.getCandidates().isEmpty();
+    if (state.world.getDeliveredCount() >= NUMBER_OF_CANS || noCanLeft || !hasTimeForTrip()) {
+      return Event.FINISHED;
+    }
+    return Event.COMPLETED;
+  }
+
+  /**
+   * This method tells whether there is enough time for another trip from the home corner.
+   * The cheapest known can is used, or the next scanning position if no can is known.
+   * @return true if there is enough time
+   */
+  private boolean hasTimeForTrip() {
+    double time = Double.MAX_VALUE;
+    if (state.trips != null) {
+      for (int i = state.batch; i < state.trips.length; i++) {
+        time = Math.min(time, MissionScheduler.estimateTrip(state.trips[i][0], bridgeX, bridgeY,
+            islandX, islandY));
+      }
+    } else if (!state.world.getCandidates().isEmpty()) {
+      for (CanCandidate can : state.world.getCandidates()) {
+        time = Math.min(time,
+            MissionScheduler.estimateTrip(can, bridgeX, bridgeY, islandX, islandY));
+      }
+    } else {
+      double[] position = scanPositions[state.scanIndex];
+      CanCandidate can = new CanCandidate(position[0] * TILE_SIZE, position[1] * TILE_SIZE,
+          position[0], position[1]);
+      time = MissionScheduler.estimateTrip(can, bridgeX, bridgeY, islandX, islandY)
+          + TimeCostModel.cost(TimeCostModel.SCAN, 1);
+    }
+    return MissionScheduler.hasTimeFor(time);
   }
 }
@@ -0,0 +1,82 @@
+/**
+ * This class keeps track of the time left before the end of the run and uses the TimeCostModel
+ * to decide whether a trip can still be completed, so the robot never gets caught in the
+ * tunnel or away from home when the time runs out. Once the phases of a trip have been
+ * measured, their durations are used when they are longer than the estimate of the model:
+ * they include what the model leaves out, like the tunnel, the corrections and the waits.
+ */
+package FinalProject;
+
+import static FinalProject.Main.*;
+import FinalProject.MissionState.Phase;
+
+public class MissionScheduler {
+  private static final double SAFETY_MARGIN = 10; // time kept in reserve (s)
+  private static long startTime = 0;
+
+  /**
+   * This method starts the mission clock
+   * @return Not used
+   */
+  public static void start() {
+    startTime = System.currentTimeMillis();
+  }
+
+  /**
+   * This method returns the time left before the end of the run
+   * @return the time in s
+   */
+  public static double getRemainingTime() {
+    return (TIME_LIMIT - (System.currentTimeMillis() - startTime)) / 1000.0;
+  }
+
+  /**
+   * This method tells whether something that takes the given time can be done before the end
+   * of the run, keeping a safety margin
+   * @param time  the estimated time in s
+   * @return true if there is enough time
+   */
+  public static boolean hasTimeFor(double time) {
+    return time + SAFETY_MARGIN <= getRemainingTime();
+  }
+
+  /**
+   * This method estimates the time of a whole trip from the home corner to a can and back
+   * @param can      the can
+   * @param bridgeX  x of the start of the tunnel on the home side (tiles)
+   * @param bridgeY  y of the start of the tunnel on the home side (tiles)
+   * @param islandX  x of the end of the tunnel on the search zone side (tiles)
+   * @param islandY  y of the end of the tunnel on the search zone side (tiles)
+   * @return the time in s
+   */
+  public static double estimateTrip(CanCandidate can, double bridgeX, double bridgeY,
+      double islandX, double islandY) {
+    double[][] out = {{Homex, Homey}, {bridgeX, bridgeY}, {islandX, islandY},
+        {can.x / TILE_SIZE, can.y / TILE_SIZE}};
+    double[][] back = {{can.x / TILE_SIZE, can.y / TILE_SIZE}, {can.scanX, can.scanY},
+        {SZ_LLx, SZ_LLy}, {islandX, islandY}, {bridgeX, bridgeY}, {Homex, Homey}};
+    // the claw closes and opens twice, and the color is identified once
+    double time = TimeCostModel.travelTime(out) + TimeCostModel.travelTime(back)
+        + TimeCostModel.cost(TimeCostModel.CLAW, 4) + TimeCostModel.cost(TimeCostModel.COLOR_ID, 1);
+    return Math.max(time, TimeCostModel.getPhasesTime(Phase.TUNNEL_OUT, Phase.APPROACH,
+        Phase.IDENTIFY, Phase.RETURN, Phase.DELIVER));
+  }
+
+  /**
+   * This method estimates the time to go back home from a point in the search zone
+   * @param x        x of the point (tiles)
+   * @param y        y of the point (tiles)
+   * @param bridgeX  x of the start of the tunnel on the home side (tiles)
+   * @param bridgeY  y of the start of the tunnel on the home side (tiles)
+   * @param islandX  x of the end of the tunnel on the search zone side (tiles)
+   * @param islandY  y of the end of the tunnel on the search zone side (tiles)
+   * @return the time in s
+   */
+  public static double estimateReturn(double x, double y, double bridgeX, double bridgeY,
+      double islandX, double islandY) {
+    double[][] back = {{x, y}, {SZ_LLx, SZ_LLy}, {islandX, islandY}, {bridgeX, bridgeY},
+        {Homex, Homey}};
+    double time = TimeCostModel.travelTime(back) + TimeCostModel.cost(TimeCostModel.CLAW, 1);
+    return Math.max(time, TimeCostModel.getPhasesTime(Phase.RETURN, Phase.DELIVER));
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * This class holds the progress of the mission: the current phase, the number of trips done,
+ * how far the search zone has been scanned, what is known about it and the can being handled.
+ * It is copied at every phase transition, so a mission can be resumed from its last checkpoint.
+ */
+package FinalProject;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+public class MissionState {
+
+  /**
+   * The phases of the mission
+   */
+  public enum Phase {
+    LOCALIZE, TUNNEL_OUT, SEARCH, APPROACH, IDENTIFY, RETURN, DELIVER, DONE
+  }
+
+  /**
+   * The events that end a phase and decide the next one
+   */
+  public enum Event {
+    COMPLETED, CAN_FOUND, NO_CAN, ZONE_EXHAUSTED, OUT_OF_TIME, FINISHED
+  }
+
+  public Phase phase = Phase.LOCALIZE;
+  public int trip = 0; // number of trips completed
+  public int scanIndex = 0; // next scanning position in the search zone
+  public boolean hasCan = false; // true while a can is being brought back
+  public double scanX, scanY; // scanning position where the can was found
+  public double canX, canY; // position of the can (in cm)
+  public CanCandidate target; // the can being approached
+  public WorldModel world; // what is known about the search zone, created on the first search
+  // batching: the trips planned to deliver the cans found by the search pass
+  public CanCandidate[][] trips = null;
+  public int batch = 0; // current trip in trips
+  public int tripCan = 0; // next can to pick up in the current trip
+
+  /**
+   * This method returns a copy of the state, used as a checkpoint. The cans are copied once,
+   * so the target and the trips still refer to the cans of the copied world model.
+   * @return the copy
+   */
+  public MissionState copy() {
+    Map<CanCandidate, CanCandidate> copies = new IdentityHashMap<CanCandidate, CanCandidate>();
+    MissionState copy = new MissionState();
+    copy.phase = phase;
+    copy.trip = trip;
+    copy.scanIndex = scanIndex;
+    copy.hasCan = hasCan;
+    copy.scanX = scanX;
+    copy.scanY = scanY;
+    copy.canX = canX;
+    copy.canY = canY;
+    copy.world = world == null ? null : world.copy(copies);
+    copy.target = WorldModel.copyOf(target, copies);
+    if (trips != null) {
+      copy.trips = new CanCandidate[trips.length][];
+      for (int i = 0; i < trips.length; i++) {
+        copy.trips[i] = new CanCandidate[trips[i].length];
+        for (int j = 0; j < trips[i].length; j++) {
+          copy.trips[i][j] = WorldModel.copyOf(trips[i][j], copies);
+        }
+      }
+    }
+    copy.batch = batch;
+    copy.tripCan = tripCan;
+    return copy;
+  }
+
+  @Override
+  public String toString() {
+    return phase + " trip:" + trip + " scan:" + scanIndex + (hasCan ? " can" : "");
+  }
+}
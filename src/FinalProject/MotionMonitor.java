@@ -0,0 +1,152 @@
+/**
+ * This class watches the wheels at the odometer rate to detect stalls and slip. A wheel is
+ * stalled when its measured rate stays well under its commanded speed (the robot ran into a
+ * wall, the tunnel edge or a can). The wheels slip when the heading change they give
+ * disagrees with the gyro; the odometry is frozen while it lasts, so the slip is not counted
+ * as motion. A stall is latched until the navigation clears it.
+ */
+package FinalProject;
+
+import Odometer.Odometer;
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+import static FinalProject.Main.*;
+
+public class MotionMonitor implements Runnable {
+  private static Odometer odometer;
+  private static EV3LargeRegulatedMotor leftMotor;
+  private static EV3LargeRegulatedMotor rightMotor;
+
+  private static final long MONITOR_PERIOD = 25; // same period as the odometer (ms)
+  private static final int WINDOW = 4; // number of periods looked at, 100 ms
+  private static final long START_GRACE = 150; // time given to a motor to get up to speed (ms)
+  private static final double STALL_RATIO = 0.3; // under this fraction of the speed it is stalled
+  private static final double SLIP_ANGLE = 4; // heading disagreement over the window to slip (deg)
+  private static final double GRIP_ANGLE = 1.5; // heading disagreement under which it grips (deg)
+
+  private static volatile boolean stalled = false;
+  private static volatile boolean slipping = false;
+
+  /**
+   * This is the constructor for the class
+   * @param odometer    the odometer
+   * @param leftMotor   the left motor of the robot
+   * @param rightMotor  the right motor of the robot
+   * @return Not used
+   */
+  public MotionMonitor(Odometer odometer, EV3LargeRegulatedMotor leftMotor,
+      EV3LargeRegulatedMotor rightMotor) {
+    MotionMonitor.odometer = odometer;
+    MotionMonitor.leftMotor = leftMotor;
+    MotionMonitor.rightMotor = rightMotor;
+  }
+
+  /**
+   * This method is where the wheels are monitored. The tacho counts and the gyro angle
+   * of the last WINDOW periods are kept to measure the rates over 100 ms.
+   */
+  @Override
+  public void run() {
+    long updateStart, updateEnd;
+    int[] leftTachos = new int[WINDOW + 1];
+    int[] rightTachos = new int[WINDOW + 1];
+    double[] gyroAngles = new double[WINDOW + 1];
+    long[] times = new long[WINDOW + 1];
+    long leftStart = -1; // time at which the left motor started moving, -1 while still
+    long rightStart = -1;
+    int samples = 0;
+    int index = 0;
+    while (true) {
+      updateStart = System.currentTimeMillis();
+      leftTachos[index] = leftMotor.getTachoCount();
+      rightTachos[index] = rightMotor.getTachoCount();
+      gyroAngles[index] = GyroService.getAngle();
+      times[index] = updateStart;
+      boolean leftMoving = leftMotor.isMoving();
+      boolean rightMoving = rightMotor.isMoving();
+      leftStart = leftMoving ? (leftStart < 0 ? updateStart : leftStart) : -1;
+      rightStart = rightMoving ? (rightStart < 0 ? updateStart : rightStart) : -1;
+
+      if (samples >= WINDOW) {
+        int oldest = (index + 1) % (WINDOW + 1);
+        double dt = (updateStart - times[oldest]) / 1000.0;
+        int leftChange = leftTachos[index] - leftTachos[oldest];
+        int rightChange = rightTachos[index] - rightTachos[oldest];
+        if (dt > 0) {
+          if (isStalled(leftMoving, leftStart, updateStart, leftChange / dt, leftMotor.getSpeed())
+              || isStalled(rightMoving, rightStart, updateStart, rightChange / dt,
+                  rightMotor.getSpeed())) {
+            stalled = true;
+          }
+        }
+        // heading change given by the wheels against the one measured by the gyro
+        double wheelTurn = (leftChange - rightChange) * WHEEL_RADIUS / WHEEL_BASE;
+        double gyroTurn = gyroAngles[index] - gyroAngles[oldest];
+        if (gyroTurn > 180) {
+          gyroTurn -= 360;
+        } else if (gyroTurn < -180) {
+          gyroTurn += 360;
+        }
+        double disagreement = Math.abs(wheelTurn - gyroTurn);
+        if (!slipping && disagreement > SLIP_ANGLE) {
+          slipping = true;
+          odometer.setFrozen(true);
+        } else if (slipping && disagreement < GRIP_ANGLE) {
+          slipping = false;
+          odometer.setFrozen(false);
+        }
+      } else {
+        samples++;
+      }
+      index = (index + 1) % (WINDOW + 1);
+
+      // this ensures that the monitor only runs once every period
+      updateEnd = System.currentTimeMillis();
+      if (updateEnd - updateStart < MONITOR_PERIOD) {
+        try {
+          Thread.sleep(MONITOR_PERIOD - (updateEnd - updateStart));
+        } catch (InterruptedException e) {
+          // there is nothing to be done
+        }
+      }
+    }
+  }
+
+  /**
+   * This method checks if a wheel is stalled: it has been commanded to move for long enough
+   * to be up to speed, but turns at a fraction of its speed
+   * @param moving    true if the motor is commanded to move
+   * @param start     the time at which it started moving (ms)
+   * @param now       the current time (ms)
+   * @param rate      the measured rate of the wheel (deg/s)
+   * @param speed     the commanded speed of the wheel (deg/s)
+   * @return true if the wheel is stalled
+   */
+  private static boolean isStalled(boolean moving, long start, long now, double rate, int speed) {
+    return moving && now - start >= START_GRACE && speed > 0
+        && Math.abs(rate) < STALL_RATIO * speed;
+  }
+
+  /**
+   * This method returns whether a stall was detected since it was last cleared
+   * @return true if a wheel stalled
+   */
+  public static boolean isStalled() {
+    return stalled;
+  }
+
+  /**
+   * This method clears the stall, once the navigation has recovered from it
+   * @return Not used
+   */
+  public static void clearStall() {
+    stalled = false;
+  }
+
+  /**
+   * This method returns whether the wheels are slipping
+   * @return true while the odometry is frozen
+   */
+  public static boolean isSlipping() {
+    return slipping;
+  }
+}
@@ -5,7 +5,6 @@ package FinalProject;
 
 import Odometer.Odometer;
 import lejos.hardware.motor.EV3LargeRegulatedMotor;
-import lejos.robotics.SampleProvider;
 import static FinalProject.Main.*;
 
 public class Navigation {
@@ -13,44 +12,106 @@ public class Navigation {
   private static EV3LargeRegulatedMotor leftMotor;
   private static EV3LargeRegulatedMotor rightMotor;
   private static boolean isNavigating = false;
-  private static SampleProvider gyroSensor;
-  private static float[] gyroData;
+  private static final double BACK_OFF = 5; // distance backed off after a stall (cm)
+  private static final int ATTEMPTS = 3; // number of tries of a straight leg before giving up
+  private static final double HORIZON = 3; // the path must be clear of the other robot for this (s)
+  private static final double NEAR_HORIZON = 1; // while driving, stop if it gets this close (s)
+  private static final long YIELD_TIME = 3000; // time waited for the other robot to go by (ms)
+  private static final double DETOUR_MARGIN = 15; // a detour point must be this far from the walls (cm)
 
   /**
    * This is the constructor for the class 
    * @param odometer   The odometer
    * @param leftMotor  The left motor of the robot
    * @param rightMotor The right motor of the robot
-   * @param gyroSensor  The gyrosensor
-   * @param gyroData    The array to store angle readings from the gyrosensor
    * @return Not used
    */
   public Navigation(Odometer odometer, EV3LargeRegulatedMotor leftMotor,
-      EV3LargeRegulatedMotor rightMotor, SampleProvider gyroSensor, float[] gyroData) {
+      EV3LargeRegulatedMotor rightMotor) {
     Navigation.odometer = odometer;
     Navigation.leftMotor = leftMotor;
     Navigation.rightMotor = rightMotor;
-    Navigation.gyroSensor = gyroSensor;
-    Navigation.gyroData = gyroData;
   }
 
   /**
    * This method is used to travel from the current position to specified coordinates x and y
    * Corresponding to coordinates on the map (without the tile size)
-   * @return Not used
+   * The robot drives forwards or backwards, whichever is faster
+   * @return true if the destination was reached, false if the robot stayed blocked
    */
-  public static void travelTo(double x, double y) {
+  public static boolean travelTo(double x, double y) {
+    return travelTo(x, y, false);
+  }
 
-    x = x * TILE_SIZE;
-    y = y * TILE_SIZE;
+  /**
+   * This method is used to travel from the current position to specified coordinates x and y
+   * Corresponding to coordinates on the map (without the tile size)
+   * If a wheel stalls on the way, the robot backs off and tries again from where it is.
+   * If the other robot is predicted on the way, the robot waits for it to go by, or goes
+   * around it.
+   * @param forwardOnly  true to always drive forwards, as when the claw must reach a can
+   * @return true if the destination was reached, false if the robot stayed blocked
+   */
+  public static boolean travelTo(double x, double y, boolean forwardOnly) {
+    for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+      avoidOpponent(x * TILE_SIZE, y * TILE_SIZE);
+      if (travelLeg(x * TILE_SIZE, y * TILE_SIZE, forwardOnly)) {
+        return true;
+      }
+      if (MotionMonitor.isStalled()) {
+        backOff();
+      }
+    }
+    return false;
+  }
 
+  /**
+   * This method keeps the robot out of the way of the other robot before a leg: it waits while
+   * the leg crosses the region the other robot is predicted in, and if that lasts, drives to a
+   * point beside it
+   * @param x  the x coordinate of the end of the leg (cm)
+   * @param y  the y coordinate of the end of the leg (cm)
+   * @return Not used
+   */
+  private static void avoidOpponent(double x, double y) {
+    long start = System.currentTimeMillis();
+    double[] odoData = odometer.getXYT();
+    while (OpponentTracker.isBlocked(odoData[0], odoData[1], x, y, HORIZON)) {
+      if (System.currentTimeMillis() - start > YIELD_TIME) {
+        double[] detour = OpponentTracker.detour(odoData[0], odoData[1], x, y);
+        if (detour != null && FieldMap.isInside(detour[0], detour[1], DETOUR_MARGIN)) {
+          travelLeg(detour[0], detour[1], false);
+        }
+        return;
+      }
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        // there is nothing to be done
+      }
+      odoData = odometer.getXYT();
+    }
+  }
+
+  /**
+   * This method turns towards a point and drives to it in a straight line, stopping
+   * as soon as a wheel stalls. When the point is behind the robot, turning its back to the
+   * point and driving backwards can save most of the turn; the time of both ways is
+   * estimated with the TimeCostModel.
+   * @param x            the x coordinate of the point (cm)
+   * @param y            the y coordinate of the point (cm)
+   * @param forwardOnly  true to always drive forwards
+   * @return true if the point was reached, false if a wheel stalled or the other robot came
+   *         in the way
+   */
+  private static boolean travelLeg(double x, double y, boolean forwardOnly) {
 
     // reset motors
     leftMotor.stop();
     rightMotor.stop();
 
-    leftMotor.setAcceleration(3000);
-    rightMotor.setAcceleration(3000);
+    leftMotor.setAcceleration(PowerGovernor.acceleration(3000));
+    rightMotor.setAcceleration(PowerGovernor.acceleration(3000));
 
 
     isNavigating = true;
@@ -62,19 +123,92 @@ public class Navigation {
     double trajectoryX = x - X;
     double trajectoryY = y - Y;
     double trajectoryAngle = Math.toDegrees(Math.atan2(trajectoryX, trajectoryY));
+    double trajectoryLine = Math.hypot(trajectoryX, trajectoryY);
+
+    // choose between driving forwards and backwards
+    boolean reverse = false;
+    if (!forwardOnly) {
+      double reverseAngle = (trajectoryAngle + 180) % 360;
+      double forwardTime = TimeCostModel.cost(TimeCostModel.TURN,
+          SearchPlanner.angleBetween(odoData[2], trajectoryAngle))
+          + TimeCostModel.cost(TimeCostModel.STRAIGHT, trajectoryLine);
+      double reverseTime = TimeCostModel.cost(TimeCostModel.TURN,
+          SearchPlanner.angleBetween(odoData[2], reverseAngle))
+          + TimeCostModel.cost(TimeCostModel.REVERSE, trajectoryLine);
+      if (reverseTime < forwardTime) {
+        reverse = true;
+        trajectoryAngle = reverseAngle;
+      }
+    }
 
     // rotate to correct angle
-    leftMotor.setSpeed(ROTATE_SPEED);
-    rightMotor.setSpeed(ROTATE_SPEED);
+    leftMotor.setSpeed(PowerGovernor.speed(ROTATE_SPEED));
+    rightMotor.setSpeed(PowerGovernor.speed(ROTATE_SPEED));
+    long turnStart = System.currentTimeMillis();
     turnTo(trajectoryAngle);
+    TimeCostModel.record(TimeCostModel.TURN, SearchPlanner.angleBetween(odoData[2], trajectoryAngle),
+        System.currentTimeMillis() - turnStart);
+    if (MotionMonitor.isStalled()) {
+      // the turn was stopped by an obstacle
+      isNavigating = false;
+      return false;
+    }
 
-    double trajectoryLine = Math.hypot(trajectoryX, trajectoryY);
+    // move forward (or backward) correct distance, the odometer counts both ways
+    int rotation = convertDistanceForMotor(reverse ? -trajectoryLine : trajectoryLine);
+    leftMotor.setSpeed(PowerGovernor.speed(FORWARD_SPEED));
+    rightMotor.setSpeed(PowerGovernor.speed(FORWARD_SPEED));
+    // correct the odometer with the lines crossed on the way
+    OdometryCorrection.isCorrecting = true;
+    long straightStart = System.currentTimeMillis();
+    leftMotor.rotate(rotation, true);
+    rightMotor.rotate(rotation, true);
+    boolean reached = waitForWheels(new double[] {x, y});
+    OdometryCorrection.isCorrecting = false;
+    if (reached) {
+      TimeCostModel.record(reverse ? TimeCostModel.REVERSE : TimeCostModel.STRAIGHT,
+          trajectoryLine, System.currentTimeMillis() - straightStart);
+    }
+    isNavigating = false;
+    return reached;
+  }
+
+  /**
+   * This method waits for both wheels to finish their rotation, and stops them if the
+   * MotionMonitor detects a stall, or if the other robot is about to get in the way
+   * @param target  the point driven to {x, y} in cm, null to not watch the other robot
+   * @return true if the rotation finished, false if it was stopped
+   */
+  private static boolean waitForWheels(double[] target) {
+    MotionMonitor.clearStall();
+    while (leftMotor.isMoving() || rightMotor.isMoving()) {
+      double[] odoData = odometer.getXYT();
+      if (MotionMonitor.isStalled() || (target != null && OpponentTracker.isBlocked(odoData[0],
+          odoData[1], target[0], target[1], NEAR_HORIZON))) {
+        leftMotor.stop(true);
+        rightMotor.stop();
+        return false;
+      }
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        // there is nothing to be done
+      }
+    }
+    return true;
+  }
 
-    // move forward correct distance
-    leftMotor.setSpeed(FORWARD_SPEED);
-    rightMotor.setSpeed(FORWARD_SPEED);
-    leftMotor.rotate(convertDistanceForMotor(trajectoryLine), true);
-    rightMotor.rotate(convertDistanceForMotor(trajectoryLine), false);
+  /**
+   * This method backs off from an obstacle after a stall
+   * @return Not used
+   */
+  private static void backOff() {
+    leftMotor.setSpeed(PowerGovernor.speed(FORWARD_SPEED));
+    rightMotor.setSpeed(PowerGovernor.speed(FORWARD_SPEED));
+    leftMotor.rotate(-convertDistanceForMotor(BACK_OFF), true);
+    rightMotor.rotate(-convertDistanceForMotor(BACK_OFF), true);
+    waitForWheels(null);
+    MotionMonitor.clearStall();
   }
 
   // to make sure the angle of each turn is the minimum angle possible
@@ -107,16 +241,12 @@ public class Navigation {
 
   /**
    * This method is used to correct the angle in the odometer based on the
-   * reading of the gyrosensor (used as a safety measure to get an accurate angle) 
+   * reading of the gyrosensor (used as a safety measure to get an accurate angle),
+   * compensated for drift by the GyroService
    * @return Not used
    */
   public static void angleCorrection() {
-    gyroSensor.fetchSample(gyroData, 0);
-    if (gyroData[0] >= 0) {
-      odometer.setXYT(odometer.getXYT()[0], odometer.getXYT()[1], gyroData[0]);
-    } else {
-      odometer.setXYT(odometer.getXYT()[0], odometer.getXYT()[1], 360 + gyroData[0]);
-    }
+    odometer.setTheta(GyroService.getAngle());
   }
 
   /**
@@ -133,11 +263,12 @@ public class Navigation {
     double minAngle = 0;
     double angle = getGyroData();
     double angle1 = getGyroData();
+    MotionMonitor.clearStall();
     while ((Math.abs(angle - angle1 - degree) >= 1)
-        && (Math.abs((angle1 - angle) - (360 - degree)) >= 1)) {
+        && (Math.abs((angle1 - angle) - (360 - degree)) >= 1) && !MotionMonitor.isStalled()) {
       minAngle = Math.min((Math.abs(angle - angle1 - degree)),
           Math.abs((angle1 - angle) - (360 - degree)));
-      speed = (int) (80 - 25 / (minAngle + 1));
+      speed = PowerGovernor.speed(80 - 25 / (minAngle + 1));
       leftMotor.setSpeed(speed);
       rightMotor.setSpeed(speed);
       leftMotor.backward();
@@ -162,11 +293,12 @@ public class Navigation {
     int speed;
     double angle = getGyroData();
     double angle1 = getGyroData();
+    MotionMonitor.clearStall();
     while ((Math.abs(angle1 - angle - degree) >= 1)
-        && (Math.abs((angle - angle1) - (360 - degree)) >= 1)) {
+        && (Math.abs((angle - angle1) - (360 - degree)) >= 1) && !MotionMonitor.isStalled()) {
       minAngle = Math.min((Math.abs(angle1 - angle - degree)),
           Math.abs((angle - angle1) - (360 - degree)));
-      speed = (int) (80 - 25 / (minAngle + 1));
+      speed = PowerGovernor.speed(80 - 25 / (minAngle + 1));
       leftMotor.setSpeed(speed);
       rightMotor.setSpeed(speed);
       leftMotor.forward();
@@ -202,7 +334,6 @@ public class Navigation {
    * @return Not used
    */
   public static double getGyroData() {
-    gyroSensor.fetchSample(gyroData, 0);
     // we correct the angle in odometer and return it here as the
     // reading of heading angle from gyro sensor
     angleCorrection();
@@ -0,0 +1,113 @@
+/**
+ * This class corrects the odometer while the robot is driving, using the grid lines detected by
+ * the LineDetector with the light sensor in the back. When a line is crossed, the pose the robot had at that moment is
+ * taken from the pose history and the matching coordinate is snapped to the nearest line.
+ */
+package FinalProject;
+
+import static FinalProject.Main.*;
+import Odometer.Odometer;
+import Odometer.PoseHistory;
+
+public class OdometryCorrection implements Runnable {
+  private static final long CORRECTION_PERIOD = 10; // period of the checks for new lines in ms
+  private static final double HEADING_TOLERANCE = 15; // max deviation (degrees) from an axis
+  private static final double MAX_CORRECTION = 8; // larger errors are treated as false lines (cm)
+  private static final double INTERSECTION_MARGIN = 4; // lines too close to a grid point are skipped
+  public static volatile boolean isCorrecting = false;
+
+  private Odometer odometer;
+  private PoseHistory poseHistory;
+  private double[] pose = new double[3];
+
+  /**
+   * This is the constructor for the class
+   * @param odometer     the odometer
+   * @return Not used
+   */
+  public OdometryCorrection(Odometer odometer) {
+    this.odometer = odometer;
+    this.poseHistory = odometer.getPoseHistory();
+  }
+
+  /**
+   * This method is where the logic for the correction runs. While isCorrecting is set to true
+   * (done by the Navigation class on straight legs), the line detector runs, and each line
+   * crossing is used to correct the odometer.
+   */
+  @Override
+  public void run() {
+    boolean active = false;
+    long cursor = 0; // number of line events already handled
+    long updateStart, updateEnd;
+    while (true) {
+      updateStart = System.currentTimeMillis();
+      if (isCorrecting && !active) {
+        cursor = LineDetector.acquire();
+        active = true;
+      } else if (!isCorrecting && active) {
+        LineDetector.release();
+        active = false;
+      }
+      if (active) {
+        long count = LineDetector.getEventCount();
+        for (; cursor < count; cursor++) {
+          long time = LineDetector.getEventTime(cursor);
+          if (time >= 0) {
+            correct(time);
+          }
+        }
+      }
+      // this ensures that the correction only runs once every period
+      updateEnd = System.currentTimeMillis();
+      if (updateEnd - updateStart < CORRECTION_PERIOD) {
+        try {
+          Thread.sleep(CORRECTION_PERIOD - (updateEnd - updateStart));
+        } catch (InterruptedException e) {
+          // there is nothing to be done
+        }
+      }
+    }
+  }
+
+  /**
+   * This method corrects the odometer with a line crossed at the given time. The sensor position
+   * at that time decides which coordinate is corrected, and the difference to the nearest line is
+   * added to the current position so the motion since the crossing is kept.
+   * @param time  the time at which the line was detected
+   * @return Not used
+   */
+  private void correct(long time) {
+    if (!poseHistory.getPoseAt(time, pose)) {
+      return;
+    }
+    double theta = pose[2];
+    // position of the sensor, which sits behind the wheel axis
+    double sensorX = pose[0] - BACK_SENSOR_OFFSET * Math.sin(Math.toRadians(theta));
+    double sensorY = pose[1] - BACK_SENSOR_OFFSET * Math.cos(Math.toRadians(theta));
+    double lineX = Math.round(sensorX / TILE_SIZE) * TILE_SIZE;
+    double lineY = Math.round(sensorY / TILE_SIZE) * TILE_SIZE;
+    // near a grid point we cannot tell which line was crossed
+    if (Math.abs(sensorX - lineX) < INTERSECTION_MARGIN
+        && Math.abs(sensorY - lineY) < INTERSECTION_MARGIN) {
+      return;
+    }
+    double axisError = Math.abs(theta - Math.round(theta / 90) * 90);
+    if (axisError > HEADING_TOLERANCE) {
+      return;
+    }
+    if (Math.round(theta / 90) % 2 == 0) {
+      // heading along the y axis, the line crossed is horizontal
+      double error = lineY - sensorY;
+      if (Math.abs(error) <= MAX_CORRECTION) {
+        odometer.update(0, error, 0);
+      }
+    } else {
+      // heading along the x axis, the line crossed is vertical
+      double error = lineX - sensorX;
+      if (Math.abs(error) <= MAX_CORRECTION) {
+        odometer.update(error, 0, 0);
+      }
+    }
+  }
+}
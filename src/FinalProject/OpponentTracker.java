@@ -0,0 +1,303 @@
+/**
+ * This class tracks the robot of the other team from the ultrasonic readings. Every reading
+ * taken by the services that use the sensor is given with the pose it was taken from; the ones
+ * that match the walls or the known cans are dropped and the others are projected on the field.
+ * The points are followed with a filter on the position, and the velocity is measured from the
+ * net displacement of the points over the last second: a single noisy reading cannot make a
+ * can look like it moves. A track that moves is the other robot. The navigation asks whether a
+ * path crosses the region the other robot is predicted to sweep in the next seconds, so it can
+ * wait or go around it.
+ */
+package FinalProject;
+
+import static FinalProject.Main.*;
+import java.util.List;
+
+public class OpponentTracker {
+  private static final double MAX_RANGE = 120; // readings further than this are not used (cm)
+  private static final double WALL_GATE = 5; // a reading this close to the wall range is the wall (cm)
+  private static final double GATE = 25; // a point this close to the prediction is the same object (cm)
+  private static final double CAN_GATE = 10; // a point this close to a known can is that can (cm)
+  private static final double ALPHA = 0.5; // weight of a new point in the position
+  private static final long TIMEOUT = 3000; // a track not seen for this long is dropped (ms)
+  private static final int HISTORY = 64; // points kept to measure the velocity
+  private static final long WINDOW = 1500; // points older than this are not used for the velocity (ms)
+  private static final long BASELINE = 500; // the velocity is measured over at least this time (ms)
+  private static final int MIN_OBSERVATIONS = 6; // points before a track can be called moving
+  private static final double MIN_DISPLACEMENT = 8; // net displacement that is not noise (cm)
+  private static final double MOVING_SPEED = 5; // speed over which the track is the robot (cm/s)
+  private static final double MAX_SPEED = 30; // speeds are clipped to this (cm/s)
+  private static final double KEEP_OUT = 30; // radius kept from the other robot (cm)
+  private static final double PREDICTION_STEP = 0.5; // time between two predicted positions (s)
+
+  private static boolean tracking = false;
+  private static double x, y; // position of the track (cm)
+  private static double vx, vy; // velocity of the track (cm/s)
+  private static long lastTime; // time of the last point (ms)
+  private static int observations = 0;
+  // points of the track, to measure the velocity
+  private static long[] historyTime = new long[HISTORY];
+  private static double[] historyX = new double[HISTORY];
+  private static double[] historyY = new double[HISTORY];
+  private static int head = 0, count = 0;
+  // positions of the cans known to the mission {x, y} (cm)
+  private static volatile double[][] cans = new double[0][];
+
+  /**
+   * This method gives the tracker the cans known to the mission, so that the readings of a
+   * can are not taken for the other robot
+   * @param candidates  the cans seen and not picked up yet
+   * @param target      the can being approached, or null
+   * @return Not used
+   */
+  public static void setCans(List<CanCandidate> candidates, CanCandidate target) {
+    double[][] positions = new double[candidates.size() + 1][];
+    int n = 0;
+    for (CanCandidate can : candidates) {
+      positions[n++] = new double[] {can.x, can.y};
+    }
+    if (target != null) {
+      positions[n++] = new double[] {target.x, target.y};
+    }
+    double[][] known = new double[n][];
+    System.arraycopy(positions, 0, known, 0, n);
+    cans = known;
+  }
+
+  /**
+   * This method gives a reading of the ultrasonic sensor to the tracker
+   * @param time      the time of the reading (ms)
+   * @param pose      the pose of the robot {x, y, theta} at that time
+   * @param distance  the reading (cm)
+   * @return Not used
+   */
+  public static void observe(long time, double[] pose, double distance) {
+    if (distance > MAX_RANGE) {
+      return;
+    }
+    double heading = Math.toRadians(pose[2]);
+    double sensorX = pose[0] + US_SENSOR_OFFSET * Math.sin(heading);
+    double sensorY = pose[1] + US_SENSOR_OFFSET * Math.cos(heading);
+    if (Math.abs(distance - FieldMap.wallDistance(sensorX, sensorY, pose[2])) <= WALL_GATE) {
+      return;
+    }
+    double pointX = sensorX + distance * Math.sin(heading);
+    double pointY = sensorY + distance * Math.cos(heading);
+    if (!FieldMap.isInside(pointX, pointY, WALL_GATE)
+        || FieldMap.tunnelDistance(pointX, pointY) < WALL_GATE) {
+      return;
+    }
+    for (double[] can : cans) {
+      if (Math.hypot(pointX - can[0], pointY - can[1]) < CAN_GATE) {
+        return;
+      }
+    }
+    update(time, pointX, pointY);
+  }
+
+  /**
+   * This method updates the track with a point on the field
+   * @param time    the time of the point (ms)
+   * @param pointX  the x coordinate of the point (cm)
+   * @param pointY  the y coordinate of the point (cm)
+   * @return Not used
+   */
+  private static synchronized void update(long time, double pointX, double pointY) {
+    double dt = (time - lastTime) / 1000.0;
+    if (!tracking || time - lastTime > TIMEOUT) {
+      start(time, pointX, pointY);
+      return;
+    }
+    if (dt <= 0) {
+      return;
+    }
+    double predictedX = x + vx * dt;
+    double predictedY = y + vy * dt;
+    double errorX = pointX - predictedX;
+    double errorY = pointY - predictedY;
+    if (Math.hypot(errorX, errorY) > GATE) {
+      return; // another object, most likely a can
+    }
+    x = predictedX + ALPHA * errorX;
+    y = predictedY + ALPHA * errorY;
+    lastTime = time;
+    observations++;
+    push(time, pointX, pointY);
+    measureVelocity(time);
+  }
+
+  /**
+   * This method adds a point to the history of the track
+   * @return Not used
+   */
+  private static void push(long time, double pointX, double pointY) {
+    historyTime[head] = time;
+    historyX[head] = pointX;
+    historyY[head] = pointY;
+    head = (head + 1) % HISTORY;
+    count = Math.min(count + 1, HISTORY);
+  }
+
+  /**
+   * This method measures the velocity of the track from the points of the last window: the
+   * mean of the newer half of the points is compared to the mean of the older half. The
+   * velocity is zero until the points span the baseline, and while the net displacement is
+   * within the noise of the readings.
+   * @param time  the time of the last point (ms)
+   * @return Not used
+   */
+  private static void measureVelocity(long time) {
+    vx = 0;
+    vy = 0;
+    int n = 0;
+    while (n < count && time - historyTime[newest(n)] <= WINDOW) {
+      n++;
+    }
+    if (n < MIN_OBSERVATIONS || time - historyTime[newest(n - 1)] < BASELINE) {
+      return;
+    }
+    int half = n / 2;
+    double newTime = 0, newX = 0, newY = 0, oldTime = 0, oldX = 0, oldY = 0;
+    for (int i = 0; i < half; i++) {
+      newTime += historyTime[newest(i)] - time;
+      newX += historyX[newest(i)];
+      newY += historyY[newest(i)];
+      oldTime += historyTime[newest(n - 1 - i)] - time;
+      oldX += historyX[newest(n - 1 - i)];
+      oldY += historyY[newest(n - 1 - i)];
+    }
+    double dx = (newX - oldX) / half;
+    double dy = (newY - oldY) / half;
+    double dt = (newTime - oldTime) / half / 1000.0;
+    if (dt <= 0 || Math.hypot(dx, dy) < MIN_DISPLACEMENT) {
+      return;
+    }
+    vx = dx / dt;
+    vy = dy / dt;
+    double speed = Math.hypot(vx, vy);
+    if (speed > MAX_SPEED) {
+      vx *= MAX_SPEED / speed;
+      vy *= MAX_SPEED / speed;
+    }
+  }
+
+  /**
+   * This method returns the index in the history of a point
+   * @param age  0 for the newest point, 1 for the one before...
+   * @return the index
+   */
+  private static int newest(int age) {
+    return (head - 1 - age + 2 * HISTORY) % HISTORY;
+  }
+
+  /**
+   * This method starts a new track at a point
+   * @param time    the time of the point (ms)
+   * @param pointX  the x coordinate of the point (cm)
+   * @param pointY  the y coordinate of the point (cm)
+   * @return Not used
+   */
+  private static void start(long time, double pointX, double pointY) {
+    tracking = true;
+    x = pointX;
+    y = pointY;
+    vx = 0;
+    vy = 0;
+    lastTime = time;
+    observations = 1;
+    count = 0;
+    push(time, pointX, pointY);
+  }
+
+  /**
+   * This method returns whether the other robot is being tracked
+   * @return true if a recent track moves
+   */
+  public static synchronized boolean isTracking() {
+    return tracking && System.currentTimeMillis() - lastTime <= TIMEOUT
+        && observations >= MIN_OBSERVATIONS && Math.hypot(vx, vy) >= MOVING_SPEED;
+  }
+
+  /**
+   * This method returns the position of the other robot predicted at a time from now
+   * @param delay  the time from now (s)
+   * @return the position {x, y} in cm, null if the other robot is not tracked
+   */
+  public static synchronized double[] predict(double delay) {
+    if (!isTracking()) {
+      return null;
+    }
+    double dt = (System.currentTimeMillis() - lastTime) / 1000.0 + delay;
+    return new double[] {x + vx * dt, y + vy * dt};
+  }
+
+  /**
+   * This method checks if a path gets into the keep-out region of the other robot, at the
+   * positions predicted over a horizon
+   * @param fromX    the x coordinate of the start of the path (cm)
+   * @param fromY    the y coordinate of the start of the path (cm)
+   * @param toX      the x coordinate of the end of the path (cm)
+   * @param toY      the y coordinate of the end of the path (cm)
+   * @param horizon  how far ahead to look (s)
+   * @return true if the path is blocked
+   */
+  public static boolean isBlocked(double fromX, double fromY, double toX, double toY,
+      double horizon) {
+    for (double t = 0; t <= horizon; t += PREDICTION_STEP) {
+      double[] position = predict(t);
+      if (position == null) {
+        return false;
+      }
+      if (distanceToSegment(position[0], position[1], fromX, fromY, toX, toY) < KEEP_OUT) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * This method returns a point to go through to get around the other robot, to the side of
+   * the path it is not on
+   * @param fromX  the x coordinate of the start of the path (cm)
+   * @param fromY  the y coordinate of the start of the path (cm)
+   * @param toX    the x coordinate of the end of the path (cm)
+   * @param toY    the y coordinate of the end of the path (cm)
+   * @return the point {x, y} in cm, null if the other robot is not tracked
+   */
+  public static double[] detour(double fromX, double fromY, double toX, double toY) {
+    double[] position = predict(0);
+    double length = Math.hypot(toX - fromX, toY - fromY);
+    if (position == null || length < 1) {
+      return null;
+    }
+    // normal to the path, on the side away from the other robot
+    double nx = (toY - fromY) / length;
+    double ny = -(toX - fromX) / length;
+    double side = (position[0] - fromX) * nx + (position[1] - fromY) * ny;
+    if (side > 0) {
+      nx = -nx;
+      ny = -ny;
+    }
+    // the point beside the other robot, far enough to clear it
+    double along = ((position[0] - fromX) * (toX - fromX) + (position[1] - fromY) * (toY - fromY))
+        / length;
+    along = Math.max(0, Math.min(length, along));
+    double offset = 2 * KEEP_OUT - Math.abs(side);
+    return new double[] {fromX + (toX - fromX) * along / length + nx * offset,
+        fromY + (toY - fromY) * along / length + ny * offset};
+  }
+
+  /**
+   * This method returns the distance from a point to a segment
+   * @return the distance in cm
+   */
+  private static double distanceToSegment(double px, double py, double ax, double ay,
+      double bx, double by) {
+    double dx = bx - ax;
+    double dy = by - ay;
+    double lengthSquared = dx * dx + dy * dy;
+    double t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+    t = Math.max(0, Math.min(1, t));
+    return Math.hypot(px - ax - t * dx, py - ay - t * dy);
+  }
+}
@@ -0,0 +1,385 @@
+/**
+ * This class tracks the pose of the robot with a particle filter against the FieldMap, so the
+ * robot can recover when it is bumped or slips instead of localizing again. Each particle is a
+ * pose hypothesis: the particles are moved with the wheel encoders (the heading with the gyro),
+ * and weighted with the lines crossed, the wall ranges of the WallCorrection and the gyro
+ * heading. The motion does not come from the odometer pose, which already holds the line and
+ * wall corrections: they would be counted twice.
+ * The particles are kept in preallocated arrays and each update has a fixed time budget.
+ * When the particles agree on a pose that the odometer has drifted away from, the odometer is
+ * brought back to it.
+ */
+package FinalProject;
+
+import static FinalProject.Main.*;
+import java.util.Random;
+import Odometer.Odometer;
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+
+public class ParticleFilter implements Runnable {
+  private static Odometer odometer;
+  private static EV3LargeRegulatedMotor leftMotor, rightMotor;
+
+  private static final int N = 200; // number of particles
+  private static final long FILTER_PERIOD = 100; // update period (ms)
+  private static final long BUDGET = 30; // time allowed to an update (ms)
+  private static final double INITIAL_SPREAD = 3; // spread around the localized pose (cm)
+  private static final double LOST_SPREAD = 15; // spread when the filter starts again (cm)
+  private static final double DISTANCE_NOISE = 0.05; // fraction of the distance driven
+  private static final double POSITION_NOISE = 0.2; // added to each update (cm)
+  private static final double HEADING_NOISE = 1; // added to each update (deg)
+  private static final double LINE_SIGMA = 1.5; // error of the line crossings (cm)
+  private static final double RANGE_SIGMA = 3; // error of the wall ranges (cm)
+  private static final double GYRO_SIGMA = 3; // error of the gyro heading (deg)
+  private static final double OUTLIER = 0.1; // likelihood floor of a wrong measurement
+  private static final double MAX_RANGE = 100; // ranges further than this are not used (cm)
+  private static final double CONFIDENT = 4; // spread under which the filter corrects (cm)
+  private static final double RECOVER = 5; // odometer error over which it is corrected (cm)
+
+  // particles, and the arrays they are resampled into
+  private static double[] px = new double[N];
+  private static double[] py = new double[N];
+  private static double[] pt = new double[N];
+  private static double[] weights = new double[N];
+  private static double[] nx = new double[N];
+  private static double[] ny = new double[N];
+  private static double[] nt = new double[N];
+  private static final Random random = new Random();
+
+  private static volatile boolean enabled = false;
+  private static volatile boolean initialized = false;
+  private static boolean acquired = false; // the line detector runs for the filter
+  private static int lastLeftTacho, lastRightTacho;
+  private static double lastGyro;
+  private static long lineCursor;
+  private static long lastRangeTime;
+  private static double[] estimate = new double[3];
+  private static double spread = Double.POSITIVE_INFINITY;
+
+  /**
+   * This is the constructor for the class
+   * @param odometer    the odometer
+   * @param leftMotor   the left motor of the robot
+   * @param rightMotor  the right motor of the robot
+   * @return Not used
+   */
+  public ParticleFilter(Odometer odometer, EV3LargeRegulatedMotor leftMotor,
+      EV3LargeRegulatedMotor rightMotor) {
+    ParticleFilter.odometer = odometer;
+    ParticleFilter.leftMotor = leftMotor;
+    ParticleFilter.rightMotor = rightMotor;
+  }
+
+  /**
+   * This method is where the filter runs, once it has been enabled. The line detector is only
+   * held during the correction windows of the OdometryCorrection (straight legs), so it idles
+   * while the robot turns or stands still.
+   */
+  @Override
+  public void run() {
+    long updateStart, updateEnd;
+    while (true) {
+      updateStart = System.currentTimeMillis();
+      if (enabled) {
+        boolean correcting = OdometryCorrection.isCorrecting;
+        if (correcting && !acquired) {
+          lineCursor = LineDetector.acquire();
+          acquired = true;
+        } else if (!correcting && acquired) {
+          LineDetector.release();
+          acquired = false;
+        }
+        if (!initialized) {
+          initialize(INITIAL_SPREAD);
+        } else {
+          update(updateStart + BUDGET);
+        }
+      }
+      // this ensures that the filter only runs once every period
+      updateEnd = System.currentTimeMillis();
+      if (updateEnd - updateStart < FILTER_PERIOD) {
+        try {
+          Thread.sleep(FILTER_PERIOD - (updateEnd - updateStart));
+        } catch (InterruptedException e) {
+          // there is nothing to be done
+        }
+      }
+    }
+  }
+
+  /**
+   * This method starts the filter from the pose of the odometer, once the robot is localized
+   * @return Not used
+   */
+  public static void enable() {
+    initialized = false;
+    enabled = true;
+  }
+
+  /**
+   * This method returns the pose estimated by the filter
+   * @return the pose {x, y, theta}
+   */
+  public static synchronized double[] getPose() {
+    return estimate.clone();
+  }
+
+  /**
+   * This method returns how much the particles are spread, the confidence of the estimate
+   * @return the standard deviation of the positions in cm, infinite before the filter starts
+   */
+  public static synchronized double getSpread() {
+    return spread;
+  }
+
+  /**
+   * This method spreads the particles around the pose of the odometer
+   * @param positionSpread  the standard deviation of the positions (cm)
+   * @return Not used
+   */
+  private static void initialize(double positionSpread) {
+    double[] odoData = odometer.getXYT();
+    for (int i = 0; i < N; i++) {
+      px[i] = odoData[0] + random.nextGaussian() * positionSpread;
+      py[i] = odoData[1] + random.nextGaussian() * positionSpread;
+      pt[i] = odoData[2] + random.nextGaussian() * HEADING_NOISE;
+      weights[i] = 1.0 / N;
+    }
+    lastLeftTacho = leftMotor.getTachoCount();
+    lastRightTacho = rightMotor.getTachoCount();
+    lastGyro = GyroService.getAngle();
+    lineCursor = LineDetector.getEventCount();
+    lastRangeTime = WallCorrection.getLastRangeTime();
+    initialized = true;
+  }
+
+  /**
+   * This method does one update of the filter. The measurements are skipped when the motion
+   * step used up the budget; the line events are then kept for the next update.
+   * @param deadline  the time by which the update must be over (ms)
+   * @return Not used
+   */
+  private static void update(long deadline) {
+    predict();
+    if (System.currentTimeMillis() < deadline) {
+      weighLines();
+    }
+    if (System.currentTimeMillis() < deadline) {
+      weighRange();
+    }
+    if (System.currentTimeMillis() < deadline) {
+      weighHeading();
+      if (!normalize()) {
+        // no particle explains the measurements, the robot was moved: start again around it
+        initialize(LOST_SPREAD);
+        return;
+      }
+      resample();
+      computeEstimate();
+      recover();
+    }
+  }
+
+  /**
+   * This method moves the particles by the motion measured since the last update. The
+   * distance comes from the wheel encoders (negative when driving backwards) and the rotation
+   * from the gyro, both with noise.
+   * @return Not used
+   */
+  private static void predict() {
+    int leftTacho = leftMotor.getTachoCount();
+    int rightTacho = rightMotor.getTachoCount();
+    double distance = Math.toRadians(
+        (leftTacho - lastLeftTacho + rightTacho - lastRightTacho) / 2.0) * WHEEL_RADIUS;
+    double gyro = GyroService.getAngle();
+    double rotation = wrap(gyro - lastGyro);
+    lastLeftTacho = leftTacho;
+    lastRightTacho = rightTacho;
+    lastGyro = gyro;
+    for (int i = 0; i < N; i++) {
+      double d = distance * (1 + random.nextGaussian() * DISTANCE_NOISE);
+      // the motion is along the heading halfway through the rotation
+      double theta = Math.toRadians(pt[i] + rotation / 2);
+      px[i] += d * Math.sin(theta) + random.nextGaussian() * POSITION_NOISE;
+      py[i] += d * Math.cos(theta) + random.nextGaussian() * POSITION_NOISE;
+      pt[i] = (pt[i] + rotation + random.nextGaussian() * HEADING_NOISE + 360) % 360;
+      if (!FieldMap.isInside(px[i], py[i], 0)) {
+        weights[i] = 0;
+      }
+    }
+  }
+
+  /**
+   * This method weighs the particles with the lines crossed since the last update: the back
+   * sensor of a good particle sits on a grid line
+   * @return Not used
+   */
+  private static void weighLines() {
+    long count = LineDetector.getEventCount();
+    for (; lineCursor < count; lineCursor++) {
+      for (int i = 0; i < N; i++) {
+        double theta = Math.toRadians(pt[i]);
+        double sensorX = px[i] - BACK_SENSOR_OFFSET * Math.sin(theta);
+        double sensorY = py[i] - BACK_SENSOR_OFFSET * Math.cos(theta);
+        double toLine = Math.min(Math.abs(sensorX - Math.round(sensorX / TILE_SIZE) * TILE_SIZE),
+            Math.abs(sensorY - Math.round(sensorY / TILE_SIZE) * TILE_SIZE));
+        weights[i] *= likelihood(toLine, LINE_SIGMA);
+      }
+    }
+  }
+
+  /**
+   * This method weighs the particles with a new wall range of the WallCorrection
+   * @return Not used
+   */
+  private static void weighRange() {
+    long time = WallCorrection.getLastRangeTime();
+    double range = WallCorrection.getLastRange();
+    if (time == lastRangeTime || range < 0 || range > MAX_RANGE) {
+      return;
+    }
+    lastRangeTime = time;
+    for (int i = 0; i < N; i++) {
+      double theta = Math.toRadians(pt[i]);
+      double expected = FieldMap.wallDistance(px[i] + US_SENSOR_OFFSET * Math.sin(theta),
+          py[i] + US_SENSOR_OFFSET * Math.cos(theta), pt[i]);
+      weights[i] *= likelihood(range - expected, RANGE_SIGMA);
+    }
+  }
+
+  /**
+   * This method weighs the particles with the heading of the gyro
+   * @return Not used
+   */
+  private static void weighHeading() {
+    double gyro = GyroService.getAngle();
+    for (int i = 0; i < N; i++) {
+      weights[i] *= likelihood(wrap(pt[i] - gyro), GYRO_SIGMA);
+    }
+  }
+
+  /**
+   * This method makes the weights sum to 1
+   * @return false if all the weights are 0
+   */
+  private static boolean normalize() {
+    double sum = 0;
+    for (int i = 0; i < N; i++) {
+      sum += weights[i];
+    }
+    if (sum <= 0 || Double.isNaN(sum)) {
+      return false;
+    }
+    for (int i = 0; i < N; i++) {
+      weights[i] /= sum;
+    }
+    return true;
+  }
+
+  /**
+   * This method draws a new set of particles from the weights (low variance resampling), when
+   * too few particles carry most of the weight
+   * @return Not used
+   */
+  private static void resample() {
+    double sumSquares = 0;
+    for (int i = 0; i < N; i++) {
+      sumSquares += weights[i] * weights[i];
+    }
+    if (1 / sumSquares > N / 2) {
+      return; // the particles are still diverse enough
+    }
+    double step = 1.0 / N;
+    double target = random.nextDouble() * step;
+    double cumulative = weights[0];
+    int j = 0;
+    for (int i = 0; i < N; i++) {
+      while (target > cumulative && j < N - 1) {
+        j++;
+        cumulative += weights[j];
+      }
+      nx[i] = px[j];
+      ny[i] = py[j];
+      nt[i] = pt[j];
+      target += step;
+    }
+    double[] swap = px;
+    px = nx;
+    nx = swap;
+    swap = py;
+    py = ny;
+    ny = swap;
+    swap = pt;
+    pt = nt;
+    nt = swap;
+    for (int i = 0; i < N; i++) {
+      weights[i] = step;
+    }
+  }
+
+  /**
+   * This method computes the weighted mean pose of the particles and their spread
+   * @return Not used
+   */
+  private static void computeEstimate() {
+    double x = 0, y = 0, sin = 0, cos = 0;
+    for (int i = 0; i < N; i++) {
+      x += weights[i] * px[i];
+      y += weights[i] * py[i];
+      sin += weights[i] * Math.sin(Math.toRadians(pt[i]));
+      cos += weights[i] * Math.cos(Math.toRadians(pt[i]));
+    }
+    double variance = 0;
+    for (int i = 0; i < N; i++) {
+      variance += weights[i] * ((px[i] - x) * (px[i] - x) + (py[i] - y) * (py[i] - y));
+    }
+    synchronized (ParticleFilter.class) {
+      estimate[0] = x;
+      estimate[1] = y;
+      estimate[2] = (Math.toDegrees(Math.atan2(sin, cos)) + 360) % 360;
+      spread = Math.sqrt(variance);
+    }
+  }
+
+  /**
+   * This method brings the odometer back to the estimate when the filter is confident and the
+   * odometer has drifted away from it
+   * @return Not used
+   */
+  private static void recover() {
+    if (spread > CONFIDENT) {
+      return;
+    }
+    double[] odoData = odometer.getXYT();
+    double dx = estimate[0] - odoData[0];
+    double dy = estimate[1] - odoData[1];
+    if (Math.hypot(dx, dy) > RECOVER) {
+      odometer.update(dx, dy, 0);
+    }
+  }
+
+  /**
+   * This method returns the likelihood of an error, with a floor for wrong measurements
+   * @param error  the error
+   * @param sigma  the standard deviation of the error
+   * @return the likelihood
+   */
+  private static double likelihood(double error, double sigma) {
+    return OUTLIER + Math.exp(-error * error / (2 * sigma * sigma));
+  }
+
+  /**
+   * This method brings an angle between -180 and 180 degrees
+   * @param angle  the angle (deg)
+   * @return the same angle between -180 and 180
+   */
+  private static double wrap(double angle) {
+    angle = angle % 360;
+    if (angle > 180) {
+      angle -= 360;
+    } else if (angle < -180) {
+      angle += 360;
+    }
+    return angle;
+  }
+}
@@ -0,0 +1,119 @@
+/**
+ * This class scales the speeds and accelerations of the wheels to what the motors can track.
+ * The fastest command of the run is the tunnel speed plus the steering on top of it. It is
+ * compared to the top speed the motors give for the battery voltage, and to the speed the
+ * wheels are seen to reach: a wheel that stays behind its command while it is not stalled is
+ * saturated, by a drained battery or by the load. All the speeds are then scaled by the same
+ * factor, so the turns and the steering keep their proportions. While the wheels track their
+ * commands, the measured limit is raised back a little at each period.
+ */
+package FinalProject;
+
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+
+public class PowerGovernor implements Runnable {
+  private static final long GOVERNOR_PERIOD = 100; // period of the tracking checks (ms)
+  private static final double USABLE = 0.8; // fraction of the top speed the regulator can track
+  // the fastest wheel command: the tunnel speed with the most steering (deg/s)
+  private static final double PEAK_SPEED =
+      TunnelTraversal.TUNNEL_SPEED * (1 + TunnelTraversal.MAX_STEERING);
+  private static final double NEAR_PEAK = 0.9; // lag counts at this fraction of the fastest command
+  private static final double LAGGING = 0.9; // under this fraction of its command a wheel lags
+  private static final double STALLED = 0.3; // under this fraction it is stalled, not saturated
+  private static final int LAG_PERIODS = 3; // periods in a row a wheel lags before it counts
+  private static final double RECOVERY = 0.01; // rise of the limit per period while tracking
+  private static final double MIN_FACTOR = 0.5; // the speeds are never scaled under this
+
+  private static EV3LargeRegulatedMotor leftMotor, rightMotor;
+  private static volatile double limit = Double.POSITIVE_INFINITY; // measured top speed (deg/s)
+  private static volatile double factor = 1; // scale of the speeds and accelerations
+  private static int leftLagging = 0, rightLagging = 0; // periods in a row each wheel lagged
+
+  /**
+   * This is the constructor for the class. The top speed is read once right away, so the
+   * speeds are scaled from the start.
+   * @param leftMotor   the left motor of the robot
+   * @param rightMotor  the right motor of the robot
+   * @return Not used
+   */
+  public PowerGovernor(EV3LargeRegulatedMotor leftMotor, EV3LargeRegulatedMotor rightMotor) {
+    PowerGovernor.leftMotor = leftMotor;
+    PowerGovernor.rightMotor = rightMotor;
+    update();
+  }
+
+  /**
+   * This method is where the top speed and the tracking are checked and the scale factor updated
+   */
+  @Override
+  public void run() {
+    while (true) {
+      try {
+        Thread.sleep(GOVERNOR_PERIOD);
+      } catch (InterruptedException e) {
+        // there is nothing to be done
+      }
+      update();
+    }
+  }
+
+  /**
+   * This method checks the tracking of the wheels and updates the scale factor from the top
+   * speed, which the motors give for the battery voltage
+   * @return Not used
+   */
+  private static void update() {
+    leftLagging = checkTracking(leftMotor, leftLagging);
+    rightLagging = checkTracking(rightMotor, rightLagging);
+    double top = USABLE * Math.min(leftMotor.getMaxSpeed(), rightMotor.getMaxSpeed());
+    double trackable = top > 0 ? Math.min(top, limit) : limit;
+    factor = Math.max(MIN_FACTOR, Math.min(1, trackable / PEAK_SPEED));
+  }
+
+  /**
+   * This method compares the speed of a wheel to its command. Only the commands near the
+   * fastest one are checked: a slower command that lags is held back by the load of the
+   * moment, not by the motors. A wheel that lags for a few periods lowers the limit to the
+   * speed it reaches; a wheel that tracks raises it back, at least to the speed it reached.
+   * @param motor    the motor of the wheel
+   * @param lagging  the periods in a row the wheel lagged so far
+   * @return the periods in a row the wheel lagged, with this one
+   */
+  private static int checkTracking(EV3LargeRegulatedMotor motor, int lagging) {
+    int commanded = motor.getSpeed();
+    double actual = Math.abs(motor.getRotationSpeed());
+    if (!motor.isMoving() || commanded < NEAR_PEAK * PEAK_SPEED * factor
+        || MotionMonitor.isStalled() || actual < STALLED * commanded) {
+      return 0;
+    }
+    if (actual < LAGGING * commanded) {
+      lagging++;
+      if (lagging >= LAG_PERIODS) {
+        limit = Math.min(limit, actual);
+      }
+      return lagging;
+    }
+    // tracked up to the fastest command, nothing limits the speeds anymore
+    double raised = Math.max(limit * (1 + RECOVERY), actual);
+    limit = raised < PEAK_SPEED ? raised : Double.POSITIVE_INFINITY;
+    return 0;
+  }
+
+  /**
+   * This method returns the speed to use for a nominal speed
+   * @param speed  the nominal speed (deg/s)
+   * @return the speed the motors can track (deg/s)
+   */
+  public static int speed(double speed) {
+    return (int) (speed * factor);
+  }
+
+  /**
+   * This method returns the acceleration to use for a nominal acceleration
+   * @param acceleration  the nominal acceleration (deg/s^2)
+   * @return the acceleration the motors can track (deg/s^2)
+   */
+  public static int acceleration(int acceleration) {
+    return (int) (acceleration * factor);
+  }
+}
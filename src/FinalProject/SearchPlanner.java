@@ -0,0 +1,225 @@
+/**
+ * This class plans where the robot should scan for cans in the search zone. It picks a small set
+ * of scanning poses (a grid point and the heading from which the CanScanner sweeps 90 degrees
+ * clockwise) that covers the whole zone within the range of the ultrasonic sensor, and orders
+ * them in a tour that is cheap to drive, counting the time spent turning.
+ */
+package FinalProject;
+
+import static FinalProject.Main.*;
+
+public class SearchPlanner {
+  private static final double SCAN_ANGLE = 90; // angle swept by the CanScanner at each pose
+  private static final double MIN_RANGE = 5; // closer points are under the robot (cm)
+  private static final double SCAN_TIME = 3; // time spent scanning at each pose (s)
+  private static final long PLAN_BUDGET = 300; // time allowed to improve the tour (ms)
+  private static final int[] HEADINGS = {0, 90, 180, 270};
+
+  /**
+   * This method plans the scanning poses for a search zone
+   * @param llx     x of the lower left corner of the zone (tiles)
+   * @param lly     y of the lower left corner of the zone (tiles)
+   * @param urx     x of the upper right corner of the zone (tiles)
+   * @param ury     y of the upper right corner of the zone (tiles)
+   * @param range   the distance at which a can is detected (cm)
+   * @param startX  x of the position the tour starts from (tiles)
+   * @param startY  y of the position the tour starts from (tiles)
+   * @return the poses in the order they should be visited: {x, y, heading}
+   */
+  public static double[][] plan(int llx, int lly, int urx, int ury, double range, double startX,
+      double startY) {
+    // points to cover, every half tile
+    int targetsX = 2 * (urx - llx) + 1;
+    int targetsY = 2 * (ury - lly) + 1;
+    int numTargets = targetsX * targetsY;
+    double[] targetX = new double[numTargets];
+    double[] targetY = new double[numTargets];
+    for (int i = 0; i < numTargets; i++) {
+      targetX[i] = llx + 0.5 * (i % targetsX);
+      targetY[i] = lly + 0.5 * (i / targetsX);
+    }
+
+    // candidate poses: every grid point of the zone, with every heading
+    int pointsX = urx - llx + 1;
+    int numCandidates = pointsX * (ury - lly + 1) * HEADINGS.length;
+    boolean[][] covers = new boolean[numCandidates][numTargets];
+    for (int c = 0; c < numCandidates; c++) {
+      int point = c / HEADINGS.length;
+      double x = llx + point % pointsX;
+      double y = lly + point / pointsX;
+      for (int t = 0; t < numTargets; t++) {
+        covers[c][t] = sees(x, y, HEADINGS[c % HEADINGS.length], targetX[t], targetY[t], range);
+      }
+    }
+
+    // greedy cover: take the pose seeing the most points that are not covered yet,
+    // and the closest one to the last pose taken when there is a tie
+    boolean[] covered = new boolean[numTargets];
+    int[] chosen = new int[numCandidates];
+    int numChosen = 0;
+    double lastX = startX, lastY = startY;
+    while (true) {
+      int best = -1;
+      int bestGain = 0;
+      double bestDistance = 0;
+      for (int c = 0; c < numCandidates; c++) {
+        int gain = 0;
+        for (int t = 0; t < numTargets; t++) {
+          if (covers[c][t] && !covered[t]) {
+            gain++;
+          }
+        }
+        int point = c / HEADINGS.length;
+        double distance = Math.hypot(llx + point % pointsX - lastX, lly + point / pointsX - lastY);
+        if (gain > bestGain || (gain == bestGain && gain > 0 && distance < bestDistance)) {
+          best = c;
+          bestGain = gain;
+          bestDistance = distance;
+        }
+      }
+      if (best < 0) {
+        break; // everything that can be seen is covered
+      }
+      for (int t = 0; t < numTargets; t++) {
+        covered[t] = covered[t] || covers[best][t];
+      }
+      chosen[numChosen++] = best;
+      lastX = llx + (best / HEADINGS.length) % pointsX;
+      lastY = lly + (best / HEADINGS.length) / pointsX;
+    }
+
+    double[][] poses = new double[numChosen][];
+    for (int i = 0; i < numChosen; i++) {
+      int point = chosen[i] / HEADINGS.length;
+      poses[i] = new double[] {llx + point % pointsX, lly + point / pointsX,
+          HEADINGS[chosen[i] % HEADINGS.length]};
+    }
+    orderTour(poses, startX, startY);
+    return poses;
+  }
+
+  /**
+   * This method tells whether a point is seen by a scan from a pose
+   * @return true if the point is within range and inside the swept angle
+   */
+  static boolean sees(double x, double y, double heading, double pointX, double pointY,
+      double range) {
+    double distance = Math.hypot(pointX - x, pointY - y) * TILE_SIZE;
+    if (distance < MIN_RANGE || distance > range) {
+      return false;
+    }
+    double bearing = Math.toDegrees(Math.atan2(pointX - x, pointY - y));
+    double swept = (bearing - heading + 360) % 360;
+    return swept <= SCAN_ANGLE;
+  }
+
+  /**
+   * This method orders the poses to make the tour as short as possible (in time), first by
+   * going to the nearest pose, then by reversing parts of the tour while it gets shorter
+   * @param poses   the poses to order
+   * @param startX  x of the start of the tour
+   * @param startY  y of the start of the tour
+   * @return Not used
+   */
+  private static void orderTour(double[][] poses, double startX, double startY) {
+    int n = poses.length;
+    // nearest neighbour
+    double x = startX, y = startY, heading = 0;
+    for (int i = 0; i < n; i++) {
+      int best = i;
+      double bestCost = Double.MAX_VALUE;
+      for (int j = i; j < n; j++) {
+        double cost = legCost(x, y, heading, poses[j]);
+        if (cost < bestCost) {
+          best = j;
+          bestCost = cost;
+        }
+      }
+      double[] swap = poses[i];
+      poses[i] = poses[best];
+      poses[best] = swap;
+      x = poses[i][0];
+      y = poses[i][1];
+      heading = poses[i][2] + SCAN_ANGLE;
+    }
+    // 2-opt, within the time budget
+    long deadline = System.currentTimeMillis() + PLAN_BUDGET;
+    double tourCost = tourCost(poses, startX, startY);
+    boolean improved = true;
+    while (improved && System.currentTimeMillis() < deadline) {
+      improved = false;
+      for (int i = 0; i < n - 1 && System.currentTimeMillis() < deadline; i++) {
+        for (int j = i + 1; j < n; j++) {
+          reverse(poses, i, j);
+          double cost = tourCost(poses, startX, startY);
+          if (cost < tourCost - 1e-6) {
+            tourCost = cost;
+            improved = true;
+          } else {
+            reverse(poses, i, j);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * This method reverses the poses between two indexes (included)
+   * @return Not used
+   */
+  private static void reverse(double[][] poses, int i, int j) {
+    while (i < j) {
+      double[] swap = poses[i];
+      poses[i++] = poses[j];
+      poses[j--] = swap;
+    }
+  }
+
+  /**
+   * This method estimates the time to drive the whole tour and scan at every pose
+   * @return the time in s
+   */
+  private static double tourCost(double[][] poses, double startX, double startY) {
+    double cost = 0;
+    double x = startX, y = startY, heading = 0;
+    for (int i = 0; i < poses.length; i++) {
+      cost += legCost(x, y, heading, poses[i]);
+      x = poses[i][0];
+      y = poses[i][1];
+      heading = poses[i][2] + SCAN_ANGLE;
+    }
+    return cost;
+  }
+
+  /**
+   * This method estimates the time to go from a pose to the next one and scan there: turn to
+   * face the next pose, drive to it, turn to the scanning heading and scan
+   * @param x        x of the robot (tiles)
+   * @param y        y of the robot (tiles)
+   * @param heading  heading of the robot (degrees)
+   * @param pose     the next pose {x, y, heading}
+   * @return the time in s
+   */
+  static double legCost(double x, double y, double heading, double[] pose) {
+    double rotationSpeed = ROTATE_SPEED * WHEEL_RADIUS / (WHEEL_BASE / 2); // degrees per s
+    double forwardSpeed = FORWARD_SPEED * Math.PI * WHEEL_RADIUS / 180; // cm per s
+    double distance = Math.hypot(pose[0] - x, pose[1] - y) * TILE_SIZE;
+    double turn = 0;
+    if (distance > 0) {
+      double direction = Math.toDegrees(Math.atan2(pose[0] - x, pose[1] - y));
+      turn += angleBetween(heading, direction);
+      heading = direction;
+    }
+    turn += angleBetween(heading, pose[2]);
+    return distance / forwardSpeed + turn / rotationSpeed + SCAN_TIME;
+  }
+
+  /**
+   * This method returns the smallest angle between two headings
+   * @return the angle in degrees, between 0 and 180
+   */
+  static double angleBetween(double a, double b) {
+    double angle = Math.abs(a - b) % 360;
+    return angle > 180 ? 360 - angle : angle;
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * This class keeps the time it takes to do each motion primitive (turning, driving straight,
+ * scanning, identifying a color, moving the claw) and each phase of the mission. The costs start
+ * from values computed from the motor speeds and are calibrated with every measurement.
+ */
+package FinalProject;
+
+import static FinalProject.Main.*;
+import FinalProject.MissionState.Phase;
+
+public class TimeCostModel {
+  // Motion primitives
+  public static final int TURN = 0; // cost per degree
+  public static final int STRAIGHT = 1; // cost per cm
+  public static final int SCAN = 2; // cost per scan
+  public static final int COLOR_ID = 3; // cost per color identification
+  public static final int CLAW = 4; // cost per claw movement
+  public static final int REVERSE = 5; // cost per cm driven backwards
+
+  private static final double WEIGHT = 0.2; // weight of a new measurement in the estimate
+
+  // cost of each primitive in s per unit, from the speeds used by the robot
+  private static double[] costs = {
+      1 / (80 * WHEEL_RADIUS / (WHEEL_BASE / 2)), // turns are done at about 80 deg/s per wheel
+      1 / (FORWARD_SPEED * Math.PI * WHEEL_RADIUS / 180),
+      3, // the scan waits for 3 s
+      4, // about 70 degrees of sensor motor sweep at 50 deg/s, and back
+      180.0 / 50, // the claw turns 180 degrees at 50 deg/s
+      1 / (FORWARD_SPEED * Math.PI * WHEEL_RADIUS / 180)};
+  // average duration of each phase of the mission in s, 0 until measured
+  private static double[] phaseTimes = new double[Phase.values().length];
+
+  /**
+   * This method calibrates the cost of a primitive with a measurement
+   * @param primitive  the primitive (TURN, STRAIGHT, SCAN, COLOR_ID, CLAW or REVERSE)
+   * @param amount     the number of units done (degrees, cm, or 1)
+   * @param duration   the time it took in ms
+   * @return Not used
+   */
+  public static synchronized void record(int primitive, double amount, long duration) {
+    if (amount < 1) {
+      return; // too small to say anything about the rate
+    }
+    double measured = duration / 1000.0 / amount;
+    costs[primitive] = (1 - WEIGHT) * costs[primitive] + WEIGHT * measured;
+  }
+
+  /**
+   * This method records how long a phase of the mission took
+   * @param phase     the phase
+   * @param duration  the time it took in ms
+   * @return Not used
+   */
+  public static synchronized void recordPhase(Phase phase, long duration) {
+    int i = phase.ordinal();
+    if (phaseTimes[i] == 0) {
+      phaseTimes[i] = duration / 1000.0;
+    } else {
+      phaseTimes[i] = (1 - WEIGHT) * phaseTimes[i] + WEIGHT * duration / 1000.0;
+    }
+  }
+
+  /**
+   * This method returns the estimated time of a primitive
+   * @param primitive  the primitive
+   * @param amount     the number of units
+   * @return the time in s
+   */
+  public static synchronized double cost(int primitive, double amount) {
+    return costs[primitive] * amount;
+  }
+
+  /**
+   * This method returns the measured time of a sequence of phases
+   * @param phases  the phases
+   * @return the sum of their average times in s, 0 if one of them was never measured
+   */
+  public static synchronized double getPhasesTime(Phase... phases) {
+    double time = 0;
+    for (Phase phase : phases) {
+      if (phaseTimes[phase.ordinal()] == 0) {
+        return 0;
+      }
+      time += phaseTimes[phase.ordinal()];
+    }
+    return time;
+  }
+
+  /**
+   * This method estimates the time of a travelTo through a list of points, including a turn
+   * at each of them
+   * @param points  the points {x, y} in tiles, starting with the current position
+   * @return the time in s
+   */
+  public static double travelTime(double[][] points) {
+    double time = 0;
+    double heading = Double.NaN;
+    for (int i = 1; i < points.length; i++) {
+      double dx = points[i][0] - points[i - 1][0];
+      double dy = points[i][1] - points[i - 1][1];
+      if (dx == 0 && dy == 0) {
+        continue;
+      }
+      double direction = Math.toDegrees(Math.atan2(dx, dy));
+      // the heading on arrival is unknown, count a quarter turn
+      double turn = Double.isNaN(heading) ? 90 : SearchPlanner.angleBetween(heading, direction);
+      time += cost(TURN, turn) + cost(STRAIGHT, Math.hypot(dx, dy) * TILE_SIZE);
+      heading = direction;
+    }
+    return time;
+  }
+}
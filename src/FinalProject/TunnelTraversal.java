@@ -0,0 +1,134 @@
+/**
+ * This class drives the robot through the tunnel. The robot is first aligned with the axis of
+ * the tunnel at its mouth using the gyro heading, then a closed-loop controller keeps it on the
+ * center line while it drives through at full speed: the steering is set from the distance to
+ * the center line (cross-track error, from the odometry corrected by the lines crossed at the
+ * mouth) and from the heading error (from the gyro).
+ */
+package FinalProject;
+
+import Odometer.Odometer;
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+import static FinalProject.Main.*;
+
+public class TunnelTraversal {
+  private static Odometer odometer;
+  private static EV3LargeRegulatedMotor leftMotor;
+  private static EV3LargeRegulatedMotor rightMotor;
+
+  static final int TUNNEL_SPEED = 3 * FORWARD_SPEED / 2; // speed in the tunnel, the fastest used (deg/s)
+  private static final long CONTROL_PERIOD = 20; // period of the controller (ms)
+  private static final double K_CROSS_TRACK = 8; // steering per cm off the center line (deg/s)
+  private static final double K_HEADING = 6; // steering per degree of heading error (deg/s)
+  static final double MAX_STEERING = 0.3; // fraction of the speed used to steer
+
+  /**
+   * This is the constructor for the class
+   * @param odometer    the odometer
+   * @param leftMotor   the left motor of the robot
+   * @param rightMotor  the right motor of the robot
+   * @return Not used
+   */
+  public TunnelTraversal(Odometer odometer, EV3LargeRegulatedMotor leftMotor,
+      EV3LargeRegulatedMotor rightMotor) {
+    TunnelTraversal.odometer = odometer;
+    TunnelTraversal.leftMotor = leftMotor;
+    TunnelTraversal.rightMotor = rightMotor;
+  }
+
+  /**
+   * This method drives through the tunnel, from the point in front of one mouth to the point
+   * past the other one. The robot is expected to be at the first point.
+   * If a wheel stalls against a wall of the tunnel, the robot falls back on the navigation to
+   * reach the end point.
+   * @param fromX  the x coordinate of the start, in front of the tunnel (tiles)
+   * @param fromY  the y coordinate of the start (tiles)
+   * @param toX    the x coordinate of the end, past the tunnel (tiles)
+   * @param toY    the y coordinate of the end (tiles)
+   * @return true if the end point was reached, false if the fallback navigation was blocked
+   */
+  public static boolean traverse(double fromX, double fromY, double toX, double toY) {
+    double startX = fromX * TILE_SIZE;
+    double startY = fromY * TILE_SIZE;
+    double length = Math.hypot(toX * TILE_SIZE - startX, toY * TILE_SIZE - startY);
+    if (length < 1) {
+      return true;
+    }
+    // unit vector along the tunnel, and the heading that follows it
+    double ux = (toX * TILE_SIZE - startX) / length;
+    double uy = (toY * TILE_SIZE - startY) / length;
+    double axis = (Math.toDegrees(Math.atan2(ux, uy)) + 360) % 360;
+
+    // align with the tunnel at its mouth
+    leftMotor.setSpeed(PowerGovernor.speed(ROTATE_SPEED));
+    rightMotor.setSpeed(PowerGovernor.speed(ROTATE_SPEED));
+    Navigation.turnTo(axis);
+
+    if (!center(startX, startY, ux, uy, axis, length)) {
+      return Navigation.travelTo(toX, toY);
+    }
+    return true;
+  }
+
+  /**
+   * This method runs the centering controller until the robot has driven the length
+   * of the tunnel
+   * @param startX  the x coordinate of the start (cm)
+   * @param startY  the y coordinate of the start (cm)
+   * @param ux      the x component of the direction of the tunnel
+   * @param uy      the y component of the direction of the tunnel
+   * @param axis    the heading along the tunnel (deg)
+   * @param length  the distance to drive (cm)
+   * @return true if the end was reached, false if a wheel stalled
+   */
+  private static boolean center(double startX, double startY, double ux, double uy, double axis,
+      double length) {
+    long start = System.currentTimeMillis();
+    leftMotor.setAcceleration(PowerGovernor.acceleration(3000));
+    rightMotor.setAcceleration(PowerGovernor.acceleration(3000));
+    MotionMonitor.clearStall();
+    OdometryCorrection.isCorrecting = true;
+    boolean reached = false;
+    while (true) {
+      double[] odoData = odometer.getXYT();
+      double px = odoData[0] - startX;
+      double py = odoData[1] - startY;
+      double progress = px * ux + py * uy;
+      if (progress >= length) {
+        reached = true;
+        break;
+      }
+      if (MotionMonitor.isStalled()) {
+        break;
+      }
+      // distance to the right of the center line, and heading error clockwise
+      double crossTrack = px * uy - py * ux;
+      double headingError = GyroService.getAngle() - axis;
+      if (headingError > 180) {
+        headingError -= 360;
+      } else if (headingError < -180) {
+        headingError += 360;
+      }
+      double steering = K_CROSS_TRACK * crossTrack + K_HEADING * headingError;
+      double maxSteering = MAX_STEERING * TUNNEL_SPEED;
+      steering = Math.max(-maxSteering, Math.min(maxSteering, steering));
+      // a positive steering turns the robot to the left
+      leftMotor.setSpeed(PowerGovernor.speed(TUNNEL_SPEED - steering));
+      rightMotor.setSpeed(PowerGovernor.speed(TUNNEL_SPEED + steering));
+      leftMotor.forward();
+      rightMotor.forward();
+      try {
+        Thread.sleep(CONTROL_PERIOD);
+      } catch (InterruptedException e) {
+        // there is nothing to be done
+      }
+    }
+    leftMotor.stop(true);
+    rightMotor.stop();
+    OdometryCorrection.isCorrecting = false;
+    if (reached) {
+      TimeCostModel.record(TimeCostModel.STRAIGHT, length, System.currentTimeMillis() - start);
+    }
+    return reached;
+  }
+}
@@ -0,0 +1,148 @@
+/**
+ * This class corrects the odometer with the distance to the perimeter walls while the robot
+ * drives. On legs where the ultrasonic sensor (at the front) faces a wall squarely, the reading
+ * is compared with the distance expected from the FieldMap. Readings far from the expected
+ * distance (a can, the tunnel, the other robot) are rejected, and a correction is only made
+ * when several readings in a row agree, a fraction of the error at a time.
+ * All the readings are also given to the OpponentTracker.
+ */
+package FinalProject;
+
+import static FinalProject.Main.*;
+import java.util.Arrays;
+import Odometer.Odometer;
+import lejos.robotics.SampleProvider;
+
+public class WallCorrection implements Runnable {
+  private static final long CORRECTION_PERIOD = 40; // about the sampling time of the sensor (ms)
+  private static final double HEADING_TOLERANCE = 8; // max deviation (degrees) from an axis
+  private static final double MAX_RANGE = 100; // readings are only trusted up to this (cm)
+  private static final double GATE = 6; // readings further than this from the model are rejected (cm)
+  private static final int WINDOW = 5; // readings looked at together
+  private static final int AGREEING = 3; // readings that must agree to correct
+  private static final double SPREAD = 2; // readings agree when they are within this (cm)
+  private static final double GAIN = 0.3; // fraction of the error corrected at once
+  private static final double MAX_STEP = 1; // largest correction at once (cm)
+
+  private static volatile double lastRange = -1; // last reading, shared with the ParticleFilter (cm)
+  private static volatile long lastRangeTime = 0; // time of the last reading (ms)
+
+  private Odometer odometer;
+  private SampleProvider usSensor;
+  private float[] usData;
+  private double[] errors = new double[WINDOW];
+  private int numErrors = 0;
+
+  /**
+   * This is the constructor for the class
+   * @param odometer  the odometer
+   * @param usSensor  the ultrasonic sensor in the "Distance" mode
+   * @return Not used
+   */
+  public WallCorrection(Odometer odometer, SampleProvider usSensor) {
+    this.odometer = odometer;
+    this.usSensor = usSensor;
+    this.usData = new float[usSensor.sampleSize()];
+  }
+
+  /**
+   * This method is where the correction runs, on the same straight legs as the line correction
+   * (while OdometryCorrection.isCorrecting is set)
+   */
+  @Override
+  public void run() {
+    long updateStart, updateEnd;
+    while (true) {
+      updateStart = System.currentTimeMillis();
+      if (!OdometryCorrection.isCorrecting) {
+        numErrors = 0;
+      } else {
+        check();
+      }
+      // this ensures that the correction only runs once every period
+      updateEnd = System.currentTimeMillis();
+      if (updateEnd - updateStart < CORRECTION_PERIOD) {
+        try {
+          Thread.sleep(CORRECTION_PERIOD - (updateEnd - updateStart));
+        } catch (InterruptedException e) {
+          // there is nothing to be done
+        }
+      }
+    }
+  }
+
+  /**
+   * This method takes one reading and compares it with the field model
+   * @return Not used
+   */
+  private void check() {
+    double[] odoData = odometer.getXYT();
+    usSensor.fetchSample(usData, 0);
+    long time = System.currentTimeMillis();
+    double range = usData[0] * 100;
+    // every reading also goes to the tracking of the other robot
+    OpponentTracker.observe(time, odoData, range);
+    double theta = odoData[2];
+    double axis = Math.round(theta / 90) * 90;
+    if (Math.abs(theta - axis) > HEADING_TOLERANCE) {
+      numErrors = 0;
+      return;
+    }
+    double rad = Math.toRadians(theta);
+    double sensorX = odoData[0] + US_SENSOR_OFFSET * Math.sin(rad);
+    double sensorY = odoData[1] + US_SENSOR_OFFSET * Math.cos(rad);
+    double expected = FieldMap.wallDistance(sensorX, sensorY, theta);
+    if (expected > MAX_RANGE || FieldMap.crossesTunnel(sensorX, sensorY, theta, expected)) {
+      numErrors = 0;
+      return;
+    }
+    lastRangeTime = time;
+    lastRange = range;
+    double error = lastRange - expected;
+    if (Math.abs(error) > GATE) {
+      return; // something is in front of the wall
+    }
+    errors[numErrors % WINDOW] = error;
+    numErrors++;
+    if (numErrors < WINDOW) {
+      return;
+    }
+    // the median of the window, if enough readings agree with it
+    double[] sorted = errors.clone();
+    Arrays.sort(sorted);
+    double median = sorted[WINDOW / 2];
+    int agreeing = 0;
+    for (double e : sorted) {
+      if (Math.abs(e - median) <= SPREAD) {
+        agreeing++;
+      }
+    }
+    if (agreeing < AGREEING) {
+      return;
+    }
+    // a reading longer than expected means the robot is further from the wall
+    double step = Math.max(-MAX_STEP, Math.min(MAX_STEP, GAIN * median));
+    if (((int) Math.round(axis / 90)) % 2 == 0) {
+      odometer.update(0, -step * Math.signum(Math.cos(rad)), 0);
+    } else {
+      odometer.update(-step * Math.signum(Math.sin(rad)), 0, 0);
+    }
+    numErrors = 0;
+  }
+
+  /**
+   * This method returns the last reading taken while facing a wall
+   * @return the range in cm, -1 if there was none
+   */
+  public static double getLastRange() {
+    return lastRange;
+  }
+
+  /**
+   * This method returns the time of the last reading taken while facing a wall
+   * @return the time in ms
+   */
+  public static long getLastRangeTime() {
+    return lastRangeTime;
+  }
+}
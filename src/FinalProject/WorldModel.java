@@ -0,0 +1,258 @@
+/**
+ * This class keeps what the robot learned about the search zone across trips: which parts of
+ * the zone were scanned, the cans seen there (with a confidence that grows each time a can is
+ * seen again and drops when a scan covers its place without seeing it), the cans being carried
+ * and the cans already delivered
+ */
+package FinalProject;
+
+import static FinalProject.Main.*;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class WorldModel {
+  private static final double MERGE_DISTANCE = 10; // detections closer than this are the same can (cm)
+  private static final double MIN_CONFIDENCE = 0.2; // candidates below this are forgotten
+
+  private int llx, lly, pointsX, pointsY;
+  private boolean[] scanned; // points of the zone, every half tile, that were covered by a scan
+  private ArrayList<CanCandidate> candidates = new ArrayList<CanCandidate>();
+  private ArrayList<CanCandidate> carried = new ArrayList<CanCandidate>();
+  private ArrayList<CanCandidate> delivered = new ArrayList<CanCandidate>();
+
+  /**
+   * This is the constructor for the class
+   * @param llx  x of the lower left corner of the search zone (tiles)
+   * @param lly  y of the lower left corner of the search zone (tiles)
+   * @param urx  x of the upper right corner of the search zone (tiles)
+   * @param ury  y of the upper right corner of the search zone (tiles)
+   * @return Not used
+   */
+  public WorldModel(int llx, int lly, int urx, int ury) {
+    this.llx = llx;
+    this.lly = lly;
+    this.pointsX = 2 * (urx - llx) + 1;
+    this.pointsY = 2 * (ury - lly) + 1;
+    this.scanned = new boolean[pointsX * pointsY];
+  }
+
+  /**
+   * This method returns a copy of the model, used by the checkpoints of the mission. The cans
+   * are copied as well, so that the model can change without changing the checkpoint.
+   * @return the copy
+   */
+  public WorldModel copy() {
+    return copy(new IdentityHashMap<CanCandidate, CanCandidate>());
+  }
+
+  /**
+   * This method returns a copy of the model, and records the copy of each can, so that the
+   * references to the cans held outside of the model can be copied the same way
+   * @param copies  the copy of each can copied so far, filled by the method
+   * @return the copy
+   */
+  public WorldModel copy(Map<CanCandidate, CanCandidate> copies) {
+    WorldModel copy = new WorldModel(llx, lly, llx + (pointsX - 1) / 2, lly + (pointsY - 1) / 2);
+    System.arraycopy(scanned, 0, copy.scanned, 0, scanned.length);
+    for (CanCandidate can : candidates) {
+      copy.candidates.add(copyOf(can, copies));
+    }
+    for (CanCandidate can : carried) {
+      copy.carried.add(copyOf(can, copies));
+    }
+    for (CanCandidate can : delivered) {
+      copy.delivered.add(copyOf(can, copies));
+    }
+    return copy;
+  }
+
+  /**
+   * This method returns the copy of a can, made only once for each can
+   * @param can     the can, or null
+   * @param copies  the copy of each can copied so far
+   * @return the copy, null if the can is null
+   */
+  public static CanCandidate copyOf(CanCandidate can, Map<CanCandidate, CanCandidate> copies) {
+    if (can == null) {
+      return null;
+    }
+    CanCandidate copy = copies.get(can);
+    if (copy == null) {
+      copy = can.copy();
+      copies.put(can, copy);
+    }
+    return copy;
+  }
+
+  /**
+   * This method records a scan: the points it covered are marked as scanned, the cans it saw
+   * are added or confirmed, and the known cans it covered without seeing lose confidence
+   * @param pose        the scanning pose {x, y, heading}
+   * @param range       the detection range of the scan (cm)
+   * @param detections  the cans seen by the scan
+   * @return Not used
+   */
+  public void recordScan(double[] pose, double range, List<CanCandidate> detections) {
+    for (int i = 0; i < scanned.length; i++) {
+      if (SearchPlanner.sees(pose[0], pose[1], pose[2], pointX(i), pointY(i), range)) {
+        scanned[i] = true;
+      }
+    }
+    ArrayList<CanCandidate> confirmed = new ArrayList<CanCandidate>();
+    for (CanCandidate detection : detections) {
+      if (isDelivered(detection)) {
+        continue;
+      }
+      CanCandidate known = find(detection);
+      if (known == null) {
+        candidates.add(detection);
+        confirmed.add(detection);
+      } else {
+        // average the positions, weighted by the number of times each was seen
+        int n = known.observations;
+        known.x = (known.x * n + detection.x) / (n + 1);
+        known.y = (known.y * n + detection.y) / (n + 1);
+        known.observations++;
+        known.confidence = 1 - (1 - known.confidence) * (1 - detection.confidence);
+        confirmed.add(known);
+      }
+    }
+    // a scan that should have seen a known can but did not makes it less likely
+    for (int i = candidates.size() - 1; i >= 0; i--) {
+      CanCandidate can = candidates.get(i);
+      if (!confirmed.contains(can) && SearchPlanner.sees(pose[0], pose[1], pose[2],
+          can.x / TILE_SIZE, can.y / TILE_SIZE, range)) {
+        can.confidence /= 2;
+        if (can.confidence < MIN_CONFIDENCE) {
+          candidates.remove(i);
+        }
+      }
+    }
+  }
+
+  /**
+   * This method tells whether everything a scanning pose would cover was already scanned
+   * @param pose   the scanning pose {x, y, heading}
+   * @param range  the detection range of the scan (cm)
+   * @return true if the scan would not cover anything new
+   */
+  public boolean isScanned(double[] pose, double range) {
+    for (int i = 0; i < scanned.length; i++) {
+      if (!scanned[i]
+          && SearchPlanner.sees(pose[0], pose[1], pose[2], pointX(i), pointY(i), range)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * This method returns the known can to go to from a position: the most likely one, and the
+   * closest one among equally likely cans
+   * @param x  x of the position (cm)
+   * @param y  y of the position (cm)
+   * @return the can, or null if no can is known
+   */
+  public CanCandidate bestCandidate(double x, double y) {
+    CanCandidate best = null;
+    for (CanCandidate can : candidates) {
+      if (best == null || can.confidence > best.confidence
+          || (can.confidence == best.confidence
+              && can.distanceTo(x, y) < best.distanceTo(x, y))) {
+        best = can;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * This method records that a can was picked up
+   * @param can  the can
+   * @return Not used
+   */
+  public void pickUp(CanCandidate can) {
+    candidates.remove(can);
+    carried.add(can);
+  }
+
+  /**
+   * This method records that a can was not found where it was seen: it loses confidence, and
+   * it is forgotten once it is unlikely
+   * @param can  the can
+   * @return Not used
+   */
+  public void miss(CanCandidate can) {
+    can.confidence /= 2;
+    if (can.confidence < MIN_CONFIDENCE) {
+      candidates.remove(can);
+    }
+  }
+
+  /**
+   * This method records that the cans carried were delivered
+   * @return the number of cans delivered
+   */
+  public int deliverCarried() {
+    int n = carried.size();
+    delivered.addAll(carried);
+    carried.clear();
+    return n;
+  }
+
+  /**
+   * This method returns the cans seen and not picked up yet
+   * @return the cans
+   */
+  public ArrayList<CanCandidate> getCandidates() {
+    return candidates;
+  }
+
+  /**
+   * This method returns the number of cans delivered
+   * @return the number of cans
+   */
+  public int getDeliveredCount() {
+    return delivered.size();
+  }
+
+  /**
+   * This method tells whether a detection is at the place of a can that was already taken away
+   * @return true if it is
+   */
+  private boolean isDelivered(CanCandidate detection) {
+    for (CanCandidate can : delivered) {
+      if (can.distanceTo(detection.x, detection.y) < MERGE_DISTANCE) {
+        return true;
+      }
+    }
+    for (CanCandidate can : carried) {
+      if (can.distanceTo(detection.x, detection.y) < MERGE_DISTANCE) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * This method finds the known can at the place of a detection
+   * @return the can, or null if the detection is a new can
+   */
+  private CanCandidate find(CanCandidate detection) {
+    for (CanCandidate can : candidates) {
+      if (can.distanceTo(detection.x, detection.y) < MERGE_DISTANCE) {
+        return can;
+      }
+    }
+    return null;
+  }
+
+  private double pointX(int i) {
+    return llx + 0.5 * (i % pointsX);
+  }
+
+  private double pointY(int i) {
+    return lly + 0.5 * (i / pointsX);
+  }
+}
@@ -21,11 +21,13 @@ public class Odometer extends OdometerData implements Runnable {
 	private int oldrightMotorTachoCount;
     private double distL;
     private double distR;
-	private final double TRACK;
-	private final double WHEEL_RAD;
+	private volatile double TRACK;
+	private volatile double WHEEL_RAD;
 
 	private static final long ODOMETER_PERIOD = 25; // odometer update period in ms
 	double Theta = 0;
+	private final PoseHistory poseHistory = new PoseHistory(); // timestamped poses
+	private volatile boolean frozen = false; // wheel motion is ignored while the wheels slip
 	
 
 	/**
@@ -92,6 +94,36 @@ public class Odometer extends OdometerData implements Runnable {
 		return odo;
 	}
 
+	/**
+	 * This method returns the history of timestamped poses recorded by the odometer
+	 * 
+	 * @return the pose history
+	 */
+	public PoseHistory getPoseHistory() {
+		return poseHistory;
+	}
+
+	/**
+	 * This method changes the kinematics used by the odometer, after a calibration
+	 * 
+	 * @param TRACK     the wheel base
+	 * @param WHEEL_RAD the wheel radius
+	 */
+	public void setKinematics(double TRACK, double WHEEL_RAD) {
+		this.TRACK = TRACK;
+		this.WHEEL_RAD = WHEEL_RAD;
+	}
+
+	/**
+	 * This method freezes or resumes the odometry. While frozen, the wheel rotations are
+	 * not counted as motion (used while the wheels slip).
+	 * 
+	 * @param frozen true to freeze the odometry
+	 */
+	public void setFrozen(boolean frozen) {
+		this.frozen = frozen;
+	}
+
 	/**
 	 * This method is where the logic for the odometer will run. Use the methods
 	 * provided from the OdometerData class to implement the odometer.
@@ -114,9 +146,16 @@ public class Odometer extends OdometerData implements Runnable {
 
 			oldleftMotorTachoCount = leftMotorTachoCount;
 			oldrightMotorTachoCount = rightMotorTachoCount;
+			if (frozen) {
+				distL = 0;
+				distR = 0;
+			}
 
 			double deltaD = 0.5 * (distL + distR);  // compute vehicle displacement, approximate
 			double deltaR = (distL - distR) / TRACK;  // compute change in heading angle, approximate , in radians
+
+			// start from the stored heading, which may have been corrected since the last update
+			Theta = Math.toRadians(odo.getXYT()[2]);
 			
 			//updating postition
 			double dX = deltaD * Math.sin(Theta); // sine and cosine work in radians.
@@ -128,6 +167,8 @@ public class Odometer extends OdometerData implements Runnable {
 			// TODO Calculate new robot position based on tachometer counts
 			// TODO Update odometer values with new calculated values
 			odo.update(dX, dY, deltaT);
+			double[] position = odo.getXYT();
+			poseHistory.record(System.currentTimeMillis(), position[0], position[1], position[2]);
 
 			// this ensures that the odometer only runs once every period
 			updateEnd = System.currentTimeMillis();
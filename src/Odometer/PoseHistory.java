@@ -0,0 +1,92 @@
+package Odometer;
+
+/**
+ * This class stores a short history of timestamped poses recorded by the odometer, so that a
+ * sensor event can be matched with the pose the robot had at the moment it happened.
+ */
+public class PoseHistory {
+
+  private static final int SIZE = 1024; // 1024 entries * 25 ms = 25.6 s, more than a localization sweep
+
+  // Ring buffer of poses (primitive arrays so that recording never allocates)
+  private final long[] times = new long[SIZE];
+  private final double[] xs = new double[SIZE];
+  private final double[] ys = new double[SIZE];
+  private final double[] thetas = new double[SIZE];
+  private int head = 0; // index of the next entry to write
+  private int count = 0; // number of valid entries
+
+  /**
+   * Records a pose in the history, overwriting the oldest entry when the buffer is full.
+   * 
+   * @param time the time of the pose in ms (System.currentTimeMillis())
+   * @param x the x position
+   * @param y the y position
+   * @param theta the heading in degrees
+   */
+  public synchronized void record(long time, double x, double y, double theta) {
+    times[head] = time;
+    xs[head] = x;
+    ys[head] = y;
+    thetas[head] = theta;
+    head = (head + 1) % SIZE;
+    if (count < SIZE) {
+      count++;
+    }
+  }
+
+  /**
+   * Writes the pose the robot had at the given time onto the pose array, interpolating linearly
+   * between the two closest recorded poses. A time newer than the last record returns the last
+   * pose.
+   * 
+   * @param time the time in ms
+   * @param pose the array to store the pose (pose[0] = x, pose[1] = y, pose[2] = theta)
+   * @return false if the time is older than the history, true otherwise
+   */
+  public synchronized boolean getPoseAt(long time, double[] pose) {
+    if (count == 0) {
+      return false;
+    }
+    int newest = (head - 1 + SIZE) % SIZE;
+    if (time >= times[newest]) {
+      pose[0] = xs[newest];
+      pose[1] = ys[newest];
+      pose[2] = thetas[newest];
+      return true;
+    }
+    // walk back from the newest entry until the pair surrounding the time is found
+    int after = newest;
+    for (int i = 1; i < count; i++) {
+      int before = (newest - i + SIZE) % SIZE;
+      if (times[before] <= time) {
+        double ratio = (double) (time - times[before]) / (times[after] - times[before]);
+        pose[0] = xs[before] + ratio * (xs[after] - xs[before]);
+        pose[1] = ys[before] + ratio * (ys[after] - ys[before]);
+        // interpolate the heading through the shortest way around the circle
+        double dTheta = thetas[after] - thetas[before];
+        if (dTheta > 180) {
+          dTheta -= 360;
+        } else if (dTheta < -180) {
+          dTheta += 360;
+        }
+        pose[2] = (thetas[before] + ratio * dTheta + 360) % 360;
+        return true;
+      }
+      after = before;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the time of the most recent pose in the history
+   * 
+   * @return the time in ms, or 0 if nothing was recorded yet
+   */
+  public synchronized long getLastTime() {
+    if (count == 0) {
+      return 0;
+    }
+    return times[(head - 1 + SIZE) % SIZE];
+  }
+}